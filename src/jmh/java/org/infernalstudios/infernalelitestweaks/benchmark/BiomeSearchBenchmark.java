@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.infernalstudios.infernalelitestweaks.util.BiomeSearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraft.util.registry.WorldGenRegistries;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeManager;
+import net.minecraft.world.biome.Biomes;
+
+/**
+ * The nearest biome search over a made up biome layout of square patches, in
+ * which the searched biomes are either common or rare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BiomeSearchBenchmark {
+  /**
+   * Chance in percent that a patch is one of the searched biomes.
+   */
+  @Param({ "20", "1" })
+  public int percent;
+
+  @Param({ "1", "4" })
+  public int stride;
+
+  private BiomeManager.IBiomeReader biomeSource;
+  private List<Biome> biomes;
+  private BlockPos origin;
+
+  @Setup
+  public void setup() {
+    Bootstrap.bootStrap();
+    Biome wastes = WorldGenRegistries.BIOME.getOrThrow(Biomes.NETHER_WASTES);
+    Biome crimson = WorldGenRegistries.BIOME.getOrThrow(Biomes.CRIMSON_FOREST);
+    Biome warped = WorldGenRegistries.BIOME.getOrThrow(Biomes.WARPED_FOREST);
+    this.biomes = Arrays.asList(crimson, warped);
+    this.origin = new BlockPos(0, 64, 0);
+
+    int percent = this.percent;
+    this.biomeSource = (x, y, z) -> {
+      // Patches of 8x8 quarts, picked by a hash of their position
+      long hash = (x >> 3) * 341873128712L + (z >> 3) * 132897987541L;
+      hash = (hash ^ (hash >>> 29)) * 0xBF58476D1CE4E5B9L;
+      int roll = (int) Math.floorMod(hash >>> 32, 100L);
+      if (roll >= percent) {
+        return wastes;
+      }
+      return roll % 2 == 0 ? crimson : warped;
+    };
+  }
+
+  @Benchmark
+  public BiomeSearch.Result findNearest() {
+    return BiomeSearch.findNearest(this.biomeSource, this.biomes, this.origin, 9999, this.stride);
+  }
+}
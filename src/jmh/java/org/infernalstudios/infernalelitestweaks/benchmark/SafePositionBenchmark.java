@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.infernalstudios.infernalelitestweaks.util.IETUtil;
+import org.infernalstudios.infernalelitestweaks.util.SyntheticNether;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.border.WorldBorder;
+
+/**
+ * The safe position search and the placement check, over each kind of
+ * {@link SyntheticNether} terrain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SafePositionBenchmark {
+  @Param({ "LAVA_SEA", "NETHERRACK_CAVERNS", "THIN_LEDGES", "SOLID" })
+  public SyntheticNether.Terrain terrain;
+
+  private SyntheticNether nether;
+  private WorldBorder worldborder;
+  private BlockPos origin;
+  private BlockPos safePos;
+
+  @Setup
+  public void setup() {
+    this.nether = new SyntheticNether(this.terrain, 48, 0L);
+    this.worldborder = new WorldBorder();
+    this.origin = new BlockPos(0, 64, 0);
+    BlockPos safePos = IETUtil.getSafePosition(this.nether, this.worldborder, SyntheticNether.HEIGHT, this.origin);
+    this.safePos = safePos == null ? this.origin : safePos;
+  }
+
+  @Benchmark
+  public BlockPos getSafePosition() {
+    return IETUtil.getSafePosition(this.nether, this.worldborder, SyntheticNether.HEIGHT, this.origin);
+  }
+
+  @Benchmark
+  public boolean isValidSpawnPosition() {
+    return IETUtil.isValidSpawnPosition(this.nether, this.worldborder, SyntheticNether.HEIGHT, this.safePos);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks;
+
+import java.util.Locale;
+import java.util.Map;
+
+import org.infernalstudios.infernalelitestweaks.elite.EliteActivation;
+import org.infernalstudios.infernalelitestweaks.elite.EliteJoinQueue;
+import org.infernalstudios.infernalelitestweaks.elite.EliteSweeper;
+import org.infernalstudios.infernalelitestweaks.stats.IETStats;
+import org.infernalstudios.infernalelitestweaks.stats.LatencyHistogram;
+import org.infernalstudios.infernalelitestweaks.util.ChunkSnapshotCache;
+import org.infernalstudios.infernalelitestweaks.util.SpawnCapGovernor;
+
+import com.mojang.brigadier.context.CommandContext;
+
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+import net.minecraft.entity.EntityClassification;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.text.StringTextComponent;
+import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+/**
+ * {@code /iet stats} shows what the spawn search, the spawn caps and the elite
+ * work have been doing since the last {@code /iet stats reset}, so tick spikes
+ * can be matched against them.
+ */
+public final class IETCommand {
+  private final EliteJoinQueue joinQueue;
+  private final EliteSweeper sweeper;
+
+  public IETCommand(EliteJoinQueue joinQueue, EliteSweeper sweeper) {
+    this.joinQueue = joinQueue;
+    this.sweeper = sweeper;
+  }
+
+  @SubscribeEvent
+  public void onRegisterCommands(RegisterCommandsEvent event) {
+    event.getDispatcher().register(Commands.literal("iet")
+      .requires(source -> source.hasPermission(2))
+      .then(Commands.literal("stats")
+        .executes(this::showStats)
+        .then(Commands.literal("reset")
+          .executes(this::resetStats))));
+  }
+
+  private int showStats(CommandContext<CommandSource> context) {
+    CommandSource source = context.getSource();
+    send(source, "Spawn resolutions: " + format(IETStats.SPAWN_RESOLUTION) + ", " + IETStats.SPAWN_REQUESTS_JOINED.sum() + " shared a search");
+    send(source, "  Biome searches: " + format(IETStats.BIOME_SEARCH) + ", " + IETStats.BIOME_SAMPLES.sum() + " samples");
+    send(source, "  Safe position searches: " + format(IETStats.SAFE_SEARCH) + ", " + IETStats.CHUNKS_TOUCHED.sum() + " chunks, " + IETStats.BLOCKS_PROBED.sum() + " blocks probed");
+    for (ServerWorld world : source.getServer().getAllLevels()) {
+      ChunkSnapshotCache cache = ChunkSnapshotCache.get(world);
+      if (cache.getHits() + cache.getMisses() > 0) {
+        send(source, String.format(Locale.ROOT, "  Snapshot cache in %s: %d hits, %d misses, %d chunks, %d KiB",
+            world.dimension().location(), cache.getHits(), cache.getMisses(), cache.size(), cache.getSizeBytes() / 1024));
+      }
+    }
+
+    send(source, "Elite joins: " + format(IETStats.ELITE_JOIN) + String.format(Locale.ROOT, ", %d early, queue %d (max %d), latency %.2f ms avg %.2f ms max",
+        this.joinQueue.getProcessedEarly(), this.joinQueue.getDepth(), this.joinQueue.getMaxDepth(), this.joinQueue.getAverageLatencyMillis(), this.joinQueue.getMaxLatencyMillis()));
+    send(source, String.format(Locale.ROOT, "Elite sweeper: %d scanned, %d despawned, %.3f ms avg %.3f ms max per tick",
+        this.sweeper.getScanned(), this.sweeper.getDespawned(), this.sweeper.getAverageTickMillis(), this.sweeper.getMaxTickMillis()));
+
+    double multiplier = SpawnCapGovernor.getMultiplier();
+    send(source, "Spawn cap governor: " + (Double.isInfinite(multiplier) ? "off" : String.format(Locale.ROOT, "monster multiplier %.2f at %.1f mspt", multiplier, SpawnCapGovernor.getLastMspt())));
+    for (Map.Entry<RegistryKey<World>, long[]> entry : IETStats.getSpawnDecisions().entrySet()) {
+      StringBuilder line = new StringBuilder("  Spawn cap checks in ").append(entry.getKey().location()).append(':');
+      for (EntityClassification classification : EntityClassification.values()) {
+        long allowed = entry.getValue()[classification.ordinal() * 2];
+        long denied = entry.getValue()[classification.ordinal() * 2 + 1];
+        if (allowed + denied > 0) {
+          line.append(' ').append(classification.getName()).append(' ').append(allowed).append('/').append(allowed + denied);
+        }
+      }
+      send(source, line.toString());
+      send(source, "    Elites active " + EliteActivation.getActive(entry.getKey()) + ", throttled " + EliteActivation.getThrottled(entry.getKey()));
+    }
+    return 1;
+  }
+
+  private int resetStats(CommandContext<CommandSource> context) {
+    IETStats.reset();
+    this.joinQueue.resetMetrics();
+    this.sweeper.resetMetrics();
+    send(context.getSource(), "Reset the stats");
+    return 1;
+  }
+
+  private static String format(LatencyHistogram histogram) {
+    return String.format(Locale.ROOT, "%d, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms", histogram.getCount(),
+        histogram.getPercentileMillis(50.0D), histogram.getPercentileMillis(95.0D), histogram.getPercentileMillis(99.0D), histogram.getMaxMillis());
+  }
+
+  private static void send(CommandSource source, String message) {
+    source.sendSuccess(new StringTextComponent(message), false);
+  }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.infernalstudios.infernalelitestweaks.elite.EliteMode;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+
+public final class IETConfig {
+  private IETConfig() {} // Uninstantiable
+
+  public static final ForgeConfigSpec SPEC;
+
+  public static final ForgeConfigSpec.IntValue SPAWN_SEARCH_THREADS;
+  public static final ForgeConfigSpec.IntValue SPAWN_SEARCH_QUEUE_SIZE;
+  public static final ForgeConfigSpec.IntValue SPAWN_SEARCH_TIMEOUT_TICKS;
+  public static final ForgeConfigSpec.IntValue SPAWN_SEARCHES_PER_TICK;
+  public static final ForgeConfigSpec.IntValue BIOME_SAMPLE_STRIDE;
+  public static final ForgeConfigSpec.IntValue SAFE_SEARCH_THREADS;
+  public static final ForgeConfigSpec.IntValue SAFE_SEARCH_RING_BANDS;
+  public static final ForgeConfigSpec.BooleanValue READ_CHUNKS_FROM_DISK;
+  public static final ForgeConfigSpec.IntValue CHUNK_LOADS_PER_TICK;
+  public static final ForgeConfigSpec.IntValue SNAPSHOT_CACHE_BYTES;
+  public static final ForgeConfigSpec.IntValue SNAPSHOT_MAX_AGE_TICKS;
+
+  public static final ForgeConfigSpec.BooleanValue SPAWN_CACHE_ENABLED;
+  public static final ForgeConfigSpec.IntValue SPAWN_CACHE_CELL_SIZE;
+  public static final ForgeConfigSpec.IntValue SPAWN_CACHE_MAX_ENTRIES;
+  public static final ForgeConfigSpec.BooleanValue WARMUP_ENABLED;
+  public static final ForgeConfigSpec.IntValue WARMUP_RADIUS_CELLS;
+  public static final ForgeConfigSpec.IntValue WARMUP_CHUNK_LOADS_PER_TICK;
+  public static final ForgeConfigSpec.DoubleValue WARMUP_MAX_MSPT;
+
+  public static final ForgeConfigSpec.ConfigValue<List<? extends String>> SPAWN_CAP_MULTIPLIERS;
+  public static final ForgeConfigSpec.BooleanValue GOVERNOR_ENABLED;
+  public static final ForgeConfigSpec.DoubleValue GOVERNOR_MIN_MULTIPLIER;
+  public static final ForgeConfigSpec.DoubleValue GOVERNOR_MAX_MULTIPLIER;
+  public static final ForgeConfigSpec.DoubleValue GOVERNOR_LOW_MSPT;
+  public static final ForgeConfigSpec.DoubleValue GOVERNOR_HIGH_MSPT;
+  public static final ForgeConfigSpec.DoubleValue GOVERNOR_STEP;
+  public static final ForgeConfigSpec.IntValue GOVERNOR_INTERVAL_TICKS;
+  public static final ForgeConfigSpec.BooleanValue LOCAL_CAPS_ENABLED;
+  public static final ForgeConfigSpec.IntValue LOCAL_CAPS_RADIUS;
+  public static final ForgeConfigSpec.IntValue LOCAL_CAPS_INTERVAL_TICKS;
+  public static final ForgeConfigSpec.BooleanValue COUNTER_ENABLED;
+  public static final ForgeConfigSpec.IntValue COUNTER_RESYNC_INTERVAL_TICKS;
+  public static final ForgeConfigSpec.BooleanValue COUNTER_VERIFY;
+
+  public static final ForgeConfigSpec.BooleanValue RECORDER_ENABLED;
+  public static final ForgeConfigSpec.IntValue RECORDER_BUFFER_SIZE;
+  public static final ForgeConfigSpec.IntValue RECORDER_FLUSH_INTERVAL_MILLIS;
+  public static final ForgeConfigSpec.IntValue RECORDER_MAX_FILE_MEGABYTES;
+  public static final ForgeConfigSpec.IntValue RECORDER_MAX_FILES;
+
+  public static final ForgeConfigSpec.EnumValue<EliteMode> ELITE_DEFAULT_MODE;
+  public static final ForgeConfigSpec.ConfigValue<List<? extends String>> ELITE_MODE_OVERRIDES;
+  public static final ForgeConfigSpec.BooleanValue ELITE_PERMANENT_EFFECTS;
+  public static final ForgeConfigSpec.IntValue ELITE_JOIN_BUDGET_COUNT;
+  public static final ForgeConfigSpec.DoubleValue ELITE_JOIN_BUDGET_MILLIS;
+  public static final ForgeConfigSpec.BooleanValue ACTIVATION_ENABLED;
+  public static final ForgeConfigSpec.IntValue ACTIVATION_RANGE;
+  public static final ForgeConfigSpec.IntValue ACTIVATION_TICK_RATE;
+  public static final ForgeConfigSpec.IntValue ACTIVATION_WAKE_TICKS;
+  public static final ForgeConfigSpec.BooleanValue SWEEPER_ENABLED;
+  public static final ForgeConfigSpec.IntValue SWEEPER_RANGE;
+  public static final ForgeConfigSpec.IntValue SWEEPER_MAX_FAR_ELITES;
+  public static final ForgeConfigSpec.IntValue SWEEPER_SLICE_SIZE;
+  public static final ForgeConfigSpec.IntValue SWEEPER_DESPAWNS_PER_TICK;
+  public static final ForgeConfigSpec.DoubleValue SWEEPER_BUDGET_MILLIS;
+
+  static {
+    ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+
+    builder.push("spawnSearch");
+    SPAWN_SEARCH_THREADS = builder
+      .comment("Number of worker threads used to search for nether spawn positions.")
+      .defineInRange("workerThreads", 2, 1, 8);
+    SPAWN_SEARCH_QUEUE_SIZE = builder
+      .comment("Maximum number of spawn searches waiting for a worker thread.")
+      .defineInRange("queueSize", 64, 1, 1024);
+    SPAWN_SEARCH_TIMEOUT_TICKS = builder
+      .comment("Ticks a player can be held in limbo before their spawn search is abandoned.")
+      .defineInRange("timeoutTicks", 1200, 20, 72000);
+    SPAWN_SEARCHES_PER_TICK = builder
+      .comment(
+        "Maximum number of queued spawn searches started each tick.",
+        "Players whose nether-scaled origins fall in the same spawnCache cell share one search while it's queued or running."
+      )
+      .defineInRange("searchesPerTick", 2, 1, 64);
+    BIOME_SAMPLE_STRIDE = builder
+      .comment(
+        "Distance in quarts (4 blocks) between the first, coarse biome samples.",
+        "Only cells where a spawnable biome was found are sampled quart by quart.",
+        "Larger values take fewer samples but can miss small biome patches, 1 samples every quart."
+      )
+      .defineInRange("biomeSampleStride", 8, 1, 64);
+    SAFE_SEARCH_THREADS = builder
+      .comment("Number of threads the safe position searches around the biome candidates are split across.")
+      .defineInRange("safeSearchThreads", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), 1, 64);
+    SAFE_SEARCH_RING_BANDS = builder
+      .comment("Number of bands of rings each candidate's safe position search is split into, 1 searches each candidate on one thread.")
+      .defineInRange("safeSearchRingBands", 4, 1, 17);
+    READ_CHUNKS_FROM_DISK = builder
+      .comment(
+        "Whether the safe position search reads chunks that aren't loaded straight from the region files.",
+        "Chunks that were never fully generated still have to be loaded."
+      )
+      .define("readChunksFromDisk", true);
+    CHUNK_LOADS_PER_TICK = builder
+      .comment("Maximum number of chunks spawn searches can start loading or generating each tick.")
+      .defineInRange("chunkLoadsPerTick", 4, 1, 256);
+    SNAPSHOT_CACHE_BYTES = builder
+      .comment("Memory budget in bytes for the chunk snapshots kept between spawn searches, 0 disables the cache.")
+      .defineInRange("snapshotCacheBytes", 8 * 1024 * 1024, 0, 1024 * 1024 * 1024);
+    SNAPSHOT_MAX_AGE_TICKS = builder
+      .comment("Ticks a cached chunk snapshot is trusted for, in case its chunk changed without a block event.")
+      .defineInRange("snapshotMaxAgeTicks", 600, 1, 72000);
+    builder.pop();
+
+    builder.push("spawnCache");
+    SPAWN_CACHE_ENABLED = builder
+      .comment("Whether resolved nether spawn positions are saved and reused for nearby origins.")
+      .define("enabled", true);
+    SPAWN_CACHE_CELL_SIZE = builder
+      .comment("Size in blocks of the cells nether-scaled spawn origins are grouped into.")
+      .defineInRange("cellSize", 16, 1, 1024);
+    SPAWN_CACHE_MAX_ENTRIES = builder
+      .comment("Maximum number of cached spawn positions, the least recently used ones are dropped first.")
+      .defineInRange("maxEntries", 512, 1, 65536);
+
+    builder.push("warmup");
+    WARMUP_ENABLED = builder
+      .comment("Whether the spawn positions around the world spawn are resolved and cached in the background when the server starts.")
+      .define("enabled", false);
+    WARMUP_RADIUS_CELLS = builder
+      .comment("Radius in cache cells around the nether-scaled world spawn to warm up, 0 only warms up the world spawn's cell.")
+      .defineInRange("radiusCells", 2, 0, 16);
+    WARMUP_CHUNK_LOADS_PER_TICK = builder
+      .comment("Maximum number of chunks the warm-up can start loading or generating each tick, on top of the players' spawn searches.")
+      .defineInRange("chunkLoadsPerTick", 2, 1, 64);
+    WARMUP_MAX_MSPT = builder
+      .comment("Average MSPT above which the warm-up pauses until the server catches up again.")
+      .defineInRange("maxMspt", 40.0D, 1.0D, 1000.0D);
+    builder.pop();
+    builder.pop();
+
+    builder.push("spawnCaps");
+    SPAWN_CAP_MULTIPLIERS = builder
+      .comment(
+        "Mob cap multipliers, as \"<dimension>;<category>;<multiplier>\", e.g. \"minecraft:the_nether;monster;2\".",
+        "Categories are monster, creature, ambient, water_creature, water_ambient and misc.",
+        "Categories that aren't listed for a dimension keep their vanilla cap."
+      )
+      .defineList("multipliers", Arrays.asList("minecraft:overworld;monster;5"), entry -> entry instanceof String && ((String) entry).split(";").length == 3);
+
+    builder.push("governor");
+    GOVERNOR_ENABLED = builder
+      .comment("Whether the monster cap multipliers above are lowered while the server is behind on ticks.")
+      .define("enabled", false);
+    GOVERNOR_MIN_MULTIPLIER = builder
+      .comment("Lowest monster cap multiplier the governor steps down to.")
+      .defineInRange("minMultiplier", 1.0D, 0.0D, 100.0D);
+    GOVERNOR_MAX_MULTIPLIER = builder
+      .comment("Highest monster cap multiplier the governor allows, the configured multipliers still apply below it.")
+      .defineInRange("maxMultiplier", 5.0D, 0.0D, 100.0D);
+    GOVERNOR_LOW_MSPT = builder
+      .comment("Below this average tick time in milliseconds the multiplier steps up.")
+      .defineInRange("lowMspt", 35.0D, 0.0D, 1000.0D);
+    GOVERNOR_HIGH_MSPT = builder
+      .comment("Above this average tick time in milliseconds the multiplier steps down.")
+      .defineInRange("highMspt", 45.0D, 0.0D, 1000.0D);
+    GOVERNOR_STEP = builder
+      .comment("How much the multiplier changes with each step.")
+      .defineInRange("step", 0.25D, 0.01D, 100.0D);
+    GOVERNOR_INTERVAL_TICKS = builder
+      .comment("Ticks between steps.")
+      .defineInRange("intervalTicks", 20, 1, 1200);
+    builder.pop();
+
+    builder.push("perPlayer");
+    LOCAL_CAPS_ENABLED = builder
+      .comment(
+        "Whether each player also gets their own monster cap, counting the monsters around them.",
+        "Chunks then only spawn monsters while a player near them is below their cap, on top of the world's cap.",
+        "The cap of a player is the world's monster cap for a single player, with the multipliers above."
+      )
+      .define("enabled", false);
+    LOCAL_CAPS_RADIUS = builder
+      .comment("Horizontal distance in blocks within which a monster counts towards a player.")
+      .defineInRange("radius", 128, 16, 512);
+    LOCAL_CAPS_INTERVAL_TICKS = builder
+      .comment("Ticks between full recounts of the monsters around each player, spawns are counted in between.")
+      .defineInRange("recountIntervalTicks", 20, 1, 1200);
+    builder.pop();
+
+    builder.push("counting");
+    COUNTER_ENABLED = builder
+      .comment(
+        "Whether mobs are counted as they join and leave worlds, instead of the spawner recounting every entity each tick.",
+        "Only entities with a spawn cost in some biome, like those in soul sand valleys, are still passed to the spawner."
+      )
+      .define("incremental", true);
+    COUNTER_RESYNC_INTERVAL_TICKS = builder
+      .comment("Ticks between full recounts, which catch mobs that became persistent without the counter noticing.")
+      .defineInRange("resyncIntervalTicks", 200, 1, 72000);
+    COUNTER_VERIFY = builder
+      .comment("Debug option, lets the spawner recount every tick and logs a warning whenever the counts are lower than the spawner's.")
+      .define("verify", false);
+    builder.pop();
+    builder.pop();
+
+    builder.push("recorder");
+    RECORDER_ENABLED = builder
+      .comment(
+        "Whether a row of stats is recorded for every server tick, to logs/infernalelitestweaks.",
+        "Rows hold the tick time, the monsters counted by the spawner, joining elites and nether spawns."
+      )
+      .define("enabled", false);
+    RECORDER_BUFFER_SIZE = builder
+      .comment("Number of rows buffered in memory for the writer thread, rows are dropped when it's full.")
+      .defineInRange("bufferSize", 8192, 64, 1048576);
+    RECORDER_FLUSH_INTERVAL_MILLIS = builder
+      .comment("Time in milliseconds between writes to disk.")
+      .defineInRange("flushIntervalMillis", 1000, 50, 60000);
+    RECORDER_MAX_FILE_MEGABYTES = builder
+      .comment("Size in megabytes a file can grow to before a new one is started.")
+      .defineInRange("maxFileMegabytes", 16, 1, 1024);
+    RECORDER_MAX_FILES = builder
+      .comment("Number of files kept, the oldest ones are deleted.")
+      .defineInRange("maxFiles", 8, 1, 1000);
+    builder.pop();
+
+    builder.push("elites");
+    ELITE_DEFAULT_MODE = builder
+      .comment(
+        "How elites are buffed. EFFECTS gives them potion effects,",
+        "ATTRIBUTES gives them the modifiers of endless Speed II, Strength II and Resistance II as permanent attribute modifiers,",
+        "which cost nothing per tick. ATTRIBUTES buffs elites whether permanentEffects is on or not."
+      )
+      .defineEnum("defaultMode", EliteMode.EFFECTS);
+    ELITE_MODE_OVERRIDES = builder
+      .comment("Modes for single entity types, as \"<entity id>=<mode>\", e.g. \"minecraft:zombie=ATTRIBUTES\".")
+      .defineList("modeOverrides", Collections.emptyList(), entry -> entry instanceof String && ((String) entry).indexOf('=') > 0);
+    ELITE_PERMANENT_EFFECTS = builder
+      .comment(
+        "Whether elites in EFFECTS mode get endless Speed II, Strength II and Resistance II.",
+        "When false they get the effects of earlier versions, which run out after a tick and leave elites practically unbuffed."
+      )
+      .define("permanentEffects", false);
+    ELITE_JOIN_BUDGET_COUNT = builder
+      .comment("Maximum number of joining elites buffed at the end of each world tick, the rest wait for the next ticks.")
+      .defineInRange("joinBudgetCount", 64, 1, 4096);
+    ELITE_JOIN_BUDGET_MILLIS = builder
+      .comment("Maximum time in milliseconds spent buffing joining elites at the end of each world tick.")
+      .defineInRange("joinBudgetMillis", 2.0D, 0.1D, 50.0D);
+
+    builder.push("activation");
+    ACTIVATION_ENABLED = builder
+      .comment("Whether elites away from every player run their AI less often.")
+      .define("enabled", false);
+    ACTIVATION_RANGE = builder
+      .comment("Distance in blocks from the nearest player beyond which an elite's AI is throttled.")
+      .defineInRange("range", 48, 8, 256);
+    ACTIVATION_TICK_RATE = builder
+      .comment("Throttled elites run their AI once every this many ticks.")
+      .defineInRange("tickRate", 4, 1, 100);
+    ACTIVATION_WAKE_TICKS = builder
+      .comment("Ticks an elite's AI runs every tick after a player came in range, it was hurt or it had a target.")
+      .defineInRange("wakeTicks", 100, 1, 1200);
+    builder.pop();
+
+    builder.push("sweeper");
+    SWEEPER_ENABLED = builder
+      .comment(
+        "Whether elites that pile up far from every player are despawned, the ones that joined the world first go first.",
+        "Elites join again when their chunk is loaded again. Persistent and named elites are kept."
+      )
+      .define("enabled", false);
+    SWEEPER_RANGE = builder
+      .comment("Distance in blocks from the nearest player beyond which an elite counts as far away.")
+      .defineInRange("range", 64, 32, 512);
+    SWEEPER_MAX_FAR_ELITES = builder
+      .comment("Number of far away elites each world keeps, only the ones beyond this are despawned.")
+      .defineInRange("maxFarElites", 100, 0, 10000);
+    SWEEPER_SLICE_SIZE = builder
+      .comment("Maximum number of elites checked each world tick.")
+      .defineInRange("sliceSize", 32, 1, 4096);
+    SWEEPER_DESPAWNS_PER_TICK = builder
+      .comment("Maximum number of elites despawned each world tick.")
+      .defineInRange("despawnsPerTick", 8, 1, 1024);
+    SWEEPER_BUDGET_MILLIS = builder
+      .comment("Maximum time in milliseconds the sweeper spends in each world tick.")
+      .defineInRange("budgetMillis", 0.5D, 0.05D, 50.0D);
+    builder.pop();
+    builder.pop();
+
+    SPEC = builder.build();
+  }
+}
@@ -17,27 +17,25 @@
 package org.infernalstudios.infernalelitestweaks;
 
 import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
-import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.MOD_ID;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.function.Supplier;
+import java.util.SplittableRandom;
 
-import org.infernalstudios.infernalelitestweaks.util.IETUtil;
+import org.infernalstudios.infernalelitestweaks.elite.EliteJoinQueue;
+import org.infernalstudios.infernalelitestweaks.elite.EliteProfile;
+import org.infernalstudios.infernalelitestweaks.elite.EliteProfiles;
+import org.infernalstudios.infernalelitestweaks.elite.EliteState;
 import org.infernalstudios.infernalelitestweaks.mixin.common.CreeperEntityAccess;
-import org.infernalstudios.infernalexp.init.IEBiomes;
+import org.infernalstudios.infernalelitestweaks.spawn.NetherSpawnResolver;
+import org.infernalstudios.infernalelitestweaks.stats.TickRecorder;
+import org.infernalstudios.infernalelitestweaks.util.LocalMobCaps;
 
 import net.minecraft.advancements.CriteriaTriggers;
-import net.minecraft.block.Block;
-import net.minecraft.block.Blocks;
-import net.minecraft.block.FallingBlock;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityClassification;
-import net.minecraft.entity.EntityType;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.entity.monster.CreeperEntity;
 import net.minecraft.entity.player.PlayerEntity;
@@ -50,23 +48,38 @@ import net.minecraft.server.MinecraftServer;
 import net.minecraft.stats.Stats;
 import net.minecraft.util.ResourceLocation;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.MathHelper;
-import net.minecraft.world.DimensionType;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.MobSpawnInfo;
 import net.minecraft.world.biome.MobSpawnInfo.Spawners;
 import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.event.AttachCapabilitiesEvent;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.entity.living.LivingDamageEvent;
 import net.minecraftforge.event.entity.living.LivingDeathEvent;
 import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.event.world.BiomeLoadingEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.registries.ForgeRegistries;
 
 public final class IETEvents {
+  private final NetherSpawnResolver spawnResolver;
+  private final EliteProfiles eliteProfiles;
+  private final EliteJoinQueue joinQueue = new EliteJoinQueue(this::applyElite);
+  private final Map<ServerWorld, SplittableRandom> chargeRandoms = new HashMap<>();
+
+  public IETEvents(NetherSpawnResolver spawnResolver, EliteProfiles eliteProfiles) {
+    this.spawnResolver = spawnResolver;
+    this.eliteProfiles = eliteProfiles;
+  }
+
+  public EliteJoinQueue getJoinQueue() {
+    return this.joinQueue;
+  }
+
   @SubscribeEvent
-  public static void playerLoggedInEvent(PlayerEvent.PlayerLoggedInEvent event) {
+  public void playerLoggedInEvent(PlayerEvent.PlayerLoggedInEvent event) {
     PlayerEntity player = event.getPlayer();
     if (!player.level.isClientSide()) {
       ServerPlayerEntity serverPlayer = (ServerPlayerEntity) player;
@@ -77,7 +90,7 @@ public final class IETEvents {
   }
 
   @SubscribeEvent
-  public static void playerRespawnEvent(PlayerEvent.PlayerRespawnEvent event) {
+  public void playerRespawnEvent(PlayerEvent.PlayerRespawnEvent event) {
     PlayerEntity player = event.getPlayer();
     if (!player.level.isClientSide()) {
       ServerPlayerEntity serverPlayer = (ServerPlayerEntity) player;
@@ -88,69 +101,19 @@ public final class IETEvents {
     }
   }
 
-  private static void respawnInNether(ServerPlayerEntity player) {
+  private void respawnInNether(ServerPlayerEntity player) {
     if (!player.level.isClientSide()) {
       MinecraftServer minecraftserver = player.level.getServer();
       ServerWorld overworld = minecraftserver.getLevel(World.OVERWORLD);
       ServerWorld nether = minecraftserver.getLevel(World.NETHER);
 
       if (overworld != null && nether != null && minecraftserver.isNetherEnabled() && !player.isPassenger()) {
-        BlockPos spawnPos;
-
-        double posX = player.getX();
-        double posZ = player.getZ();
-        double scale = DimensionType.getTeleportationScale(overworld.dimensionType(), nether.dimensionType());
-        posX /= scale;
-        posZ /= scale;
+        BlockPos spawnPos = NetherSpawnResolver.getOrigin(overworld, nether, player.getX(), player.getY(), player.getZ());
+        List<Biome> spawnableBiomes = NetherSpawnResolver.getSpawnableBiomes();
 
-        double d0 = Math.min(-2.9999872E7D, nether.getWorldBorder().getMinX() + 16.0D);
-        double d1 = Math.min(-2.9999872E7D, nether.getWorldBorder().getMinZ() + 16.0D);
-        double d2 = Math.min(2.9999872E7D, nether.getWorldBorder().getMaxX() - 16.0D);
-        double d3 = Math.min(2.9999872E7D, nether.getWorldBorder().getMaxZ() - 16.0D);
-        posX = MathHelper.clamp(posX, d0, d2);
-        posZ = MathHelper.clamp(posZ, d1, d3);
-        spawnPos = new BlockPos(posX, player.getY(), posZ);
-
-        Biome crimsonForest = ForgeRegistries.BIOMES.getValue(new ResourceLocation("minecraft", "crimson_forest"));
-        Biome warpedForest = ForgeRegistries.BIOMES.getValue(new ResourceLocation("minecraft", "warped_forest"));
-        Biome glowstoneCanyon = IEBiomes.GLOWSTONE_CANYON.get();
-
-        List<Biome> spawnableBiomes = new ArrayList<>();
-
-        if (crimsonForest != null) {
-          spawnableBiomes.add(crimsonForest);
-        } else {
-          LOGGER.info("Couldn't add crimsonForest to spawnableBiomes, it is null.");
-        }
-
-        if (warpedForest != null) {
-          spawnableBiomes.add(warpedForest);
-        } else {
-          LOGGER.info("Couldn't add warpedForest to spawnableBiomes, it is null.");
-        }
-
-        if (glowstoneCanyon != null) {
-          spawnableBiomes.add(glowstoneCanyon);
-        } else {
-          LOGGER.info("Couldn't add glowstoneCanyon to spawnableBiomes, it is null.");
-        }
-
-        // Find a safe spawn position
-        spawnPos = IETUtil.getSpawnableBiomesPosition(nether, spawnableBiomes, spawnPos, 9999).immutable();
-
-        if (spawnPos != null) {
-          // Make sure there's a solid block under player.
-          Block blockBelow = nether.getBlockState(spawnPos.below()).getBlock();
-          if (blockBelow instanceof FallingBlock || blockBelow.equals(Blocks.LAVA)) {
-            nether.setBlock(spawnPos.below(), Blocks.NETHERRACK.defaultBlockState(), 2);
-          }
-          // Teleport to safe spawn position
-          player.teleportTo(nether, spawnPos.getX(), spawnPos.getY(), spawnPos.getZ(), player.getViewYRot(0.0f), player.getViewXRot(0.0f));
-        } else {
-          LOGGER.info("Couldn't spawn player {} in the nether, spawnPos is null", player.getScoreboardName());
-        }
-
-        player.level.getProfiler().endTick();
+        // Find a safe spawn position off the server thread, the player is held in place until it's found
+        this.spawnResolver.request(player, nether, spawnPos, spawnableBiomes);
+        TickRecorder.recordSpawnRequest();
       } else {
         if (overworld == null) {
           LOGGER.info("Couldn't spawn player {} in the nether, overworld == null", player.getScoreboardName());
@@ -165,83 +128,105 @@ public final class IETEvents {
     }
   }
 
-  private static Map<EntityType<?>, List<Supplier<EffectInstance>>> MOB_EFFECT_LIST = new HashMap<>();
-  
-  static {
-    for (EntityType<?> entityType : Arrays.asList(
-      EntityType.CREEPER,
-      EntityType.ZOMBIE, 
-      EntityType.SKELETON,
-      EntityType.SPIDER,
-      EntityType.CAVE_SPIDER,
-      EntityType.ZOMBIE_VILLAGER,
-      EntityType.HUSK,
-      ForgeRegistries.ENTITIES.getValue(new ResourceLocation("desolation", "blackened")),
-      ForgeRegistries.ENTITIES.getValue(new ResourceLocation("eidolon", "zombie_brute")),
-      ForgeRegistries.ENTITIES.getValue(new ResourceLocation("eidolon", "wraith"))
-    )) {
-      MOB_EFFECT_LIST.put(
-        entityType,
-        Arrays.asList(
-          () -> new EffectInstance(Effects.MOVEMENT_SPEED, 1, Integer.MAX_VALUE, true, true),
-          () -> new EffectInstance(Effects.DAMAGE_BOOST, 1, Integer.MAX_VALUE, true, true),
-          () -> new EffectInstance(Effects.DAMAGE_RESISTANCE, 1, Integer.MAX_VALUE, true, true)
-        )
-      );
-    }
-  }
-
   @SubscribeEvent
   public void onEntityJoin(EntityJoinWorldEvent event) {
+    Entity e = event.getEntity();
+    // Every entity type that isn't buffed stops here, which covers items, orbs, projectiles and so on
+    if (this.eliteProfiles.get(e.getType()) == null || !(e instanceof LivingEntity)) {
+      return;
+    }
+
     World world = event.getWorld();
     if (!world.isClientSide()) {
-      Entity e = event.getEntity();
-      if (e instanceof CreeperEntity) {
+      // Chunks full of monsters can load at once, so the work is spread over the next ticks
+      this.joinQueue.enqueue((ServerWorld) world, (LivingEntity) e);
+      TickRecorder.recordEliteJoin();
+    }
+  }
+
+  /**
+   * Rolls the charge and applies the buffs of an elite that joined the world,
+   * called by the {@link EliteJoinQueue}.
+   */
+  private void applyElite(LivingEntity e) {
+    EliteProfile profile = this.eliteProfiles.get(e.getType());
+    World world = e.level;
+    EliteState state = EliteState.get(e);
+    if (profile != null && state != null) {
+      if (e instanceof CreeperEntity && !state.has(EliteState.CHARGE_CHECKED)) {
         CreeperEntity entity = (CreeperEntity) e;
-        Set<String> tags = entity.getTags();
+        state.set(EliteState.CHARGE_CHECKED);
 
-        if (!tags.contains(MOD_ID + ".checkedForChargedEntity")) {
-          entity.addTag(MOD_ID + ".checkedForChargedEntity");
-          double num = Math.random();
+        // Creepers saved before the capability existed were marked with a tag instead
+        if (!entity.removeTag(EliteState.LEGACY_CHARGE_CHECKED_TAG)) {
           // 20% chance
-          if (num < 0.2) {
+          if (this.getChargeRandom((ServerWorld) world).nextInt(5) == 0) {
             entity.getEntityData().set(CreeperEntityAccess.getDataIsPowered(), true);
           }
         }
       }
 
-      if (e instanceof LivingEntity) {
-        LivingEntity entity = (LivingEntity) e;
-        if (MOB_EFFECT_LIST.containsKey(e.getType())) {
-          for (Supplier<EffectInstance> effectInstanceProvider : MOB_EFFECT_LIST.get(entity.getType())) {
-            EffectInstance effectInstance = effectInstanceProvider.get();
-            entity.removeEffect(effectInstance.getEffect());
-            entity.addEffect(effectInstance);
-          }
-        }
+      byte buffed = EliteState.getBuffedFlag(profile.getMode());
+      if (!state.has(buffed)) {
+        profile.apply((LivingEntity) e);
+        state.clear((byte) (EliteState.BUFFED_EFFECTS | EliteState.BUFFED_ATTRIBUTES));
+        state.set(buffed);
       }
     }
   }
 
+  @SubscribeEvent
+  public void onAttachEntityCapabilities(AttachCapabilitiesEvent<Entity> event) {
+    if (this.eliteProfiles.get(event.getObject().getType()) != null) {
+      event.addCapability(EliteState.ID, new EliteState.Provider());
+    }
+  }
+
+  /**
+   * Each world rolls from its own random source, seeded from the world seed.
+   * Only used on the server thread, so it doesn't need to be synchronized.
+   */
+  private SplittableRandom getChargeRandom(ServerWorld world) {
+    return this.chargeRandoms.computeIfAbsent(world, level -> new SplittableRandom(level.getSeed() ^ level.dimension().location().hashCode()));
+  }
+
+  @SubscribeEvent
+  public void onWorldUnload(WorldEvent.Unload event) {
+    this.chargeRandoms.remove(event.getWorld());
+    if (event.getWorld() instanceof ServerWorld) {
+      LocalMobCaps.remove((ServerWorld) event.getWorld());
+    }
+  }
+
+  @SubscribeEvent
+  public void onLivingDamage(LivingDamageEvent event) {
+    EliteProfile profile = this.eliteProfiles.get(event.getEntityLiving().getType());
+    if (profile != null) {
+      event.setAmount(profile.getDamageTaken(event.getSource(), event.getAmount()));
+    }
+  }
+
   @SubscribeEvent
   public void onBiomeLoad(BiomeLoadingEvent event) {
     if (new ResourceLocation("desolation", "charred_forest").equals(event.getName())) {
       List<Spawners> mobSpawners = event.getSpawns().getSpawner(EntityClassification.MONSTER);
-      for (Map.Entry<EntityType<?>, ?> entry : MOB_EFFECT_LIST.entrySet()) {
-        if (entry.getKey() != null) {
-          mobSpawners.add(new MobSpawnInfo.Spawners(entry.getKey(), 1, 1, 1));
-        }
+      Collection<EliteProfile> profiles = this.eliteProfiles.getProfiles();
+      for (EliteProfile profile : profiles) {
+        mobSpawners.add(new MobSpawnInfo.Spawners(profile.getType(), 1, 1, 1));
       }
 
       // Adding more blackened spawners, so that other mobs don't outweigh them.
-      mobSpawners.add(
-        new MobSpawnInfo.Spawners(
-          ForgeRegistries.ENTITIES.getValue(new ResourceLocation("desolation", "blackened")),
-          MOB_EFFECT_LIST.size(),
-          1,
-          1
-        )
-      );
+      ResourceLocation blackened = new ResourceLocation("desolation", "blackened");
+      if (ForgeRegistries.ENTITIES.containsKey(blackened)) {
+        mobSpawners.add(
+          new MobSpawnInfo.Spawners(
+            ForgeRegistries.ENTITIES.getValue(blackened),
+            profiles.size(),
+            1,
+            1
+          )
+        );
+      }
     }
   }
   
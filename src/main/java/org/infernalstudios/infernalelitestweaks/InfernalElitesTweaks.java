@@ -18,9 +18,23 @@ package org.infernalstudios.infernalelitestweaks;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.infernalstudios.infernalelitestweaks.elite.EliteActivation;
+import org.infernalstudios.infernalelitestweaks.elite.EliteProfiles;
+import org.infernalstudios.infernalelitestweaks.elite.EliteSweeper;
+import org.infernalstudios.infernalelitestweaks.elite.EliteState;
+import org.infernalstudios.infernalelitestweaks.spawn.NetherSpawnResolver;
+import org.infernalstudios.infernalelitestweaks.spawn.SpawnWarmup;
+import org.infernalstudios.infernalelitestweaks.stats.TickRecorder;
+import org.infernalstudios.infernalelitestweaks.util.MobCategoryCounter;
+import org.infernalstudios.infernalelitestweaks.util.SpawnCapGovernor;
 
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.eventbus.api.IEventBus;
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
+import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
+import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 
 @Mod(InfernalElitesTweaks.MOD_ID)
 public class InfernalElitesTweaks {
@@ -28,6 +42,31 @@ public class InfernalElitesTweaks {
   public static final String MOD_ID = "infernalelitestweaks";
 
   public InfernalElitesTweaks() {
-    MinecraftForge.EVENT_BUS.register(new IETEvents());
+    ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, IETConfig.SPEC);
+
+    NetherSpawnResolver spawnResolver = new NetherSpawnResolver();
+    MinecraftForge.EVENT_BUS.register(spawnResolver);
+    MinecraftForge.EVENT_BUS.register(new SpawnWarmup(spawnResolver));
+
+    EliteProfiles eliteProfiles = new EliteProfiles();
+    IEventBus modEventBus = FMLJavaModLoadingContext.get().getModEventBus();
+    modEventBus.addListener(this::setup);
+    modEventBus.addListener(eliteProfiles::onLoadComplete);
+    modEventBus.addListener(EliteActivation::onConfigChanged);
+
+    IETEvents events = new IETEvents(spawnResolver, eliteProfiles);
+    MinecraftForge.EVENT_BUS.register(events);
+    MinecraftForge.EVENT_BUS.register(events.getJoinQueue());
+    EliteSweeper sweeper = new EliteSweeper(eliteProfiles);
+    MinecraftForge.EVENT_BUS.register(sweeper);
+    MinecraftForge.EVENT_BUS.register(SpawnCapGovernor.class);
+    MinecraftForge.EVENT_BUS.register(MobCategoryCounter.class);
+    MinecraftForge.EVENT_BUS.register(EliteActivation.class);
+    MinecraftForge.EVENT_BUS.register(TickRecorder.class);
+    MinecraftForge.EVENT_BUS.register(new IETCommand(events.getJoinQueue(), sweeper));
+  }
+
+  private void setup(FMLCommonSetupEvent event) {
+    EliteState.register();
   }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.elite;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.MobEntity;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.world.World;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.config.ModConfig;
+
+/**
+ * Activation range for elites. Elites that are further than
+ * {@link IETConfig#ACTIVATION_RANGE} blocks from every player only run their
+ * AI every {@link IETConfig#ACTIVATION_TICK_RATE} ticks. They wake up for
+ * {@link IETConfig#ACTIVATION_WAKE_TICKS} ticks as soon as a player comes in
+ * range, they're hurt or they have a target. Registered as a class, its
+ * handlers are static. Must only be used on the server thread, except for
+ * {@link #onConfigChanged}.
+ */
+public final class EliteActivation {
+  private EliteActivation() {} // Uninstantiable
+
+  private static volatile Set<EntityType<?>> types = Collections.emptySet();
+  private static final Map<RegistryKey<World>, Counts> COUNTS = new HashMap<>();
+  // Read for every mob tick, so the config values are cached
+  private static volatile boolean enabled;
+  private static volatile int range;
+  private static volatile int tickRate = 1;
+  private static volatile int wakeTicks;
+
+  /**
+   * Sets the entity types that are throttled, called once the elite profiles
+   * are built.
+   */
+  public static void setTypes(Set<EntityType<?>> eliteTypes) {
+    types = new ReferenceOpenHashSet<>(eliteTypes);
+  }
+
+  /**
+   * @return Whether the mob's AI is throttled while it's away from players
+   */
+  public static boolean isThrottled(MobEntity entity) {
+    return types.contains(entity.getType()) && enabled;
+  }
+
+  /**
+   * @return The ticks between two AI steps of a throttled mob
+   */
+  public static int getTickRate() {
+    return tickRate;
+  }
+
+  /**
+   * @return The ticks a woken up mob's AI runs every tick
+   */
+  public static int getWakeTicks() {
+    return wakeTicks;
+  }
+
+  /**
+   * @return Whether the mob has to be woken up
+   */
+  public static boolean shouldWake(MobEntity entity) {
+    if (entity.hurtTime > 0 || entity.getTarget() != null) {
+      return true;
+    }
+    return entity.level.hasNearbyAlivePlayer(entity.getX(), entity.getY(), entity.getZ(), range);
+  }
+
+  /**
+   * Counts a throttled mob that ticked, either running its AI or not.
+   */
+  public static void count(MobEntity entity, boolean active) {
+    Counts counts = COUNTS.computeIfAbsent(entity.level.dimension(), dimension -> new Counts());
+    if (active) {
+      counts.active++;
+    } else {
+      counts.throttled++;
+    }
+  }
+
+  /**
+   * @return The number of active elites in the dimension during the last tick
+   */
+  public static int getActive(RegistryKey<World> dimension) {
+    Counts counts = COUNTS.get(dimension);
+    return counts == null ? 0 : counts.lastActive;
+  }
+
+  /**
+   * @return The number of throttled elites in the dimension during the last
+   *         tick
+   */
+  public static int getThrottled(RegistryKey<World> dimension) {
+    Counts counts = COUNTS.get(dimension);
+    return counts == null ? 0 : counts.lastThrottled;
+  }
+
+  /**
+   * Caches the config values, registered on the mod event bus for both
+   * {@link ModConfig.Loading} and {@link ModConfig.Reloading}.
+   */
+  public static void onConfigChanged(ModConfig.ModConfigEvent event) {
+    if (event.getConfig().getSpec() != IETConfig.SPEC) {
+      return;
+    }
+
+    enabled = IETConfig.ACTIVATION_ENABLED.get();
+    range = IETConfig.ACTIVATION_RANGE.get();
+    tickRate = IETConfig.ACTIVATION_TICK_RATE.get();
+    wakeTicks = IETConfig.ACTIVATION_WAKE_TICKS.get();
+  }
+
+  @SubscribeEvent
+  public static void onWorldTick(TickEvent.WorldTickEvent event) {
+    if (event.phase != TickEvent.Phase.END || event.world.isClientSide()) {
+      return;
+    }
+
+    Counts counts = COUNTS.get(event.world.dimension());
+    if (counts != null) {
+      counts.lastActive = counts.active;
+      counts.lastThrottled = counts.throttled;
+      counts.active = 0;
+      counts.throttled = 0;
+    }
+  }
+
+  private static final class Counts {
+    private int active;
+    private int throttled;
+    private int lastActive;
+    private int lastThrottled;
+  }
+}
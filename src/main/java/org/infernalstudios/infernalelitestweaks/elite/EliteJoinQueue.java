@@ -0,0 +1,200 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.elite;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+import org.infernalstudios.infernalelitestweaks.stats.IETStats;
+
+import it.unimi.dsi.fastutil.objects.Reference2LongLinkedOpenHashMap;
+import net.minecraft.entity.LivingEntity;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.living.LivingEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+/**
+ * Spreads the elite work for joining entities over several ticks. Entities are
+ * queued per world when they join and processed at the end of the world's
+ * tick, within {@link IETConfig#ELITE_JOIN_BUDGET_COUNT} and
+ * {@link IETConfig#ELITE_JOIN_BUDGET_MILLIS}. An entity that's still queued
+ * when it's about to tick is processed right away, so it never acts before it
+ * was buffed.
+ */
+public final class EliteJoinQueue {
+  private final Consumer<LivingEntity> processor;
+  /**
+   * Queued entities of each world, in join order, with the time they joined at.
+   */
+  private final Map<ServerWorld, Reference2LongLinkedOpenHashMap<LivingEntity>> queues = new HashMap<>();
+  private int queued;
+
+  private int maxDepth;
+  private long processed;
+  private long processedEarly;
+  private long totalLatencyNanos;
+  private long maxLatencyNanos;
+
+  public EliteJoinQueue(Consumer<LivingEntity> processor) {
+    this.processor = processor;
+  }
+
+  public void enqueue(ServerWorld world, LivingEntity entity) {
+    Reference2LongLinkedOpenHashMap<LivingEntity> queue = this.queues.get(world);
+    if (queue == null) {
+      queue = new Reference2LongLinkedOpenHashMap<>();
+      this.queues.put(world, queue);
+    }
+
+    if (!queue.containsKey(entity)) {
+      queue.put(entity, System.nanoTime());
+      this.queued++;
+      this.maxDepth = Math.max(this.maxDepth, this.queued);
+    }
+  }
+
+  @SubscribeEvent
+  public void onWorldTick(TickEvent.WorldTickEvent event) {
+    if (event.phase != TickEvent.Phase.END || this.queued == 0 || !(event.world instanceof ServerWorld)) {
+      return;
+    }
+
+    Reference2LongLinkedOpenHashMap<LivingEntity> queue = this.queues.get(event.world);
+    if (queue == null || queue.isEmpty()) {
+      return;
+    }
+
+    int budget = IETConfig.ELITE_JOIN_BUDGET_COUNT.get();
+    long deadline = System.nanoTime() + (long) (IETConfig.ELITE_JOIN_BUDGET_MILLIS.get() * 1_000_000L);
+    int drained = 0;
+    while (!queue.isEmpty() && drained < budget && System.nanoTime() < deadline) {
+      LivingEntity entity = queue.firstKey();
+      long joinedAt = queue.removeFirstLong();
+      this.process(entity, joinedAt);
+      drained++;
+    }
+
+    if (!queue.isEmpty()) {
+      LOGGER.debug("Processed {} joining elites in {}, {} are left for the next ticks", drained, event.world.dimension().location(), queue.size());
+    }
+  }
+
+  /**
+   * Processes queued entities before their first tick. Runs first, so other
+   * handlers already see the buffed entity.
+   */
+  @SubscribeEvent(priority = EventPriority.HIGHEST)
+  public void onLivingUpdate(LivingEvent.LivingUpdateEvent event) {
+    // Client entities tick on the client thread, which must not touch the queues
+    LivingEntity entity = event.getEntityLiving();
+    if (entity.level.isClientSide()) {
+      return;
+    }
+
+    // Every living entity ticks through here, so skip the lookups while nothing is queued
+    if (this.queued == 0) {
+      return;
+    }
+
+    Reference2LongLinkedOpenHashMap<LivingEntity> queue = this.queues.get(entity.level);
+    if (queue != null && queue.containsKey(entity)) {
+      this.processedEarly++;
+      this.process(entity, queue.removeLong(entity));
+    }
+  }
+
+  @SubscribeEvent
+  public void onWorldUnload(WorldEvent.Unload event) {
+    Reference2LongLinkedOpenHashMap<LivingEntity> queue = this.queues.remove(event.getWorld());
+    if (queue != null) {
+      this.queued -= queue.size();
+    }
+  }
+
+  private void process(LivingEntity entity, long joinedAt) {
+    this.queued--;
+    // Entities can be unloaded again before their turn
+    if (!entity.isAlive()) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      this.processor.accept(entity);
+    } catch (RuntimeException e) {
+      LOGGER.error("Couldn't process elite {}", entity, e);
+    }
+    IETStats.ELITE_JOIN.record(System.nanoTime() - start);
+
+    long latency = System.nanoTime() - joinedAt;
+    this.processed++;
+    this.totalLatencyNanos += latency;
+    this.maxLatencyNanos = Math.max(this.maxLatencyNanos, latency);
+  }
+
+  /**
+   * @return How many entities are waiting to be processed
+   */
+  public int getDepth() {
+    return this.queued;
+  }
+
+  /**
+   * @return The most entities that were waiting at once since the metrics
+   *         were reset
+   */
+  public int getMaxDepth() {
+    return this.maxDepth;
+  }
+
+  public long getProcessed() {
+    return this.processed;
+  }
+
+  /**
+   * @return How many entities had to be processed as they were about to tick
+   */
+  public long getProcessedEarly() {
+    return this.processedEarly;
+  }
+
+  /**
+   * @return Average time in milliseconds from joining to being processed
+   */
+  public double getAverageLatencyMillis() {
+    return this.processed == 0 ? 0.0D : this.totalLatencyNanos / (double) this.processed / 1_000_000.0D;
+  }
+
+  public double getMaxLatencyMillis() {
+    return this.maxLatencyNanos / 1_000_000.0D;
+  }
+
+  public void resetMetrics() {
+    this.maxDepth = this.queued;
+    this.processed = 0;
+    this.processedEarly = 0;
+    this.totalLatencyNanos = 0;
+    this.maxLatencyNanos = 0;
+  }
+}
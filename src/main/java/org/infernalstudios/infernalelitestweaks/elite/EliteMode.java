@@ -0,0 +1,32 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.elite;
+
+/**
+ * How an elite's buffs are applied.
+ */
+public enum EliteMode {
+  /**
+   * Endless potion effects, which tick on the entity and are synced to clients.
+   */
+  EFFECTS,
+  /**
+   * Permanent attribute modifiers and damage scaling with the same strength as
+   * the effects, which cost nothing per tick.
+   */
+  ATTRIBUTES
+}
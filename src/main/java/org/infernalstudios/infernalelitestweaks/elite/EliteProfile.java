@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.elite;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.MOD_ID;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.LivingEntity;
+import net.minecraft.entity.ai.attributes.Attribute;
+import net.minecraft.entity.ai.attributes.AttributeModifier;
+import net.minecraft.entity.ai.attributes.ModifiableAttributeInstance;
+import net.minecraft.potion.EffectInstance;
+import net.minecraft.potion.Effects;
+import net.minecraft.util.DamageSource;
+
+/**
+ * How the entities of one type are buffed. The effect templates are shared and
+ * never handed to an entity, which only ever gets copies of them.
+ * <p>
+ * In {@link EliteMode#ATTRIBUTES} mode the boosts are translated into the
+ * permanent attribute modifiers their effects would have added, and
+ * resistance, which has no attribute, into {@link #getDamageTaken}. The
+ * boosts are the endless versions of the effects, so this mode buffs elites
+ * even while the effects run out after a tick.
+ */
+public final class EliteProfile {
+  private final EntityType<?> type;
+  private final EliteMode mode;
+  private final EffectInstance[] effects;
+  private final EffectInstance[] boosts;
+  private final List<Attribute> attributes = new ArrayList<>();
+  private final List<AttributeModifier> modifiers = new ArrayList<>();
+  private final float damageTakenMultiplier;
+
+  /**
+   * @param effects The effects given in {@link EliteMode#EFFECTS} mode
+   * @param boosts  The effects whose modifiers are given in
+   *                {@link EliteMode#ATTRIBUTES} mode
+   */
+  public EliteProfile(EntityType<?> type, EliteMode mode, EffectInstance[] effects, EffectInstance[] boosts) {
+    this.type = type;
+    this.mode = mode;
+    this.effects = effects;
+    this.boosts = boosts;
+
+    float damageTakenMultiplier = 1.0F;
+    for (EffectInstance template : boosts) {
+      for (Map.Entry<Attribute, AttributeModifier> entry : template.getEffect().getAttributeModifiers().entrySet()) {
+        // Stable ids, so the modifiers saved with an entity are recognized when it's loaded again
+        String name = MOD_ID + ":elite/" + template.getEffect().getRegistryName() + "/" + entry.getKey().getRegistryName();
+        this.attributes.add(entry.getKey());
+        this.modifiers.add(new AttributeModifier(
+          UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)),
+          name,
+          template.getEffect().getAttributeModifierValue(template.getAmplifier(), entry.getValue()),
+          entry.getValue().getOperation()
+        ));
+      }
+      if (template.getEffect() == Effects.DAMAGE_RESISTANCE) {
+        // Same as LivingEntity#getDamageAfterMagicAbsorb
+        damageTakenMultiplier *= Math.max(0.0F, 1.0F - (template.getAmplifier() + 1) * 0.2F);
+      }
+    }
+    this.damageTakenMultiplier = damageTakenMultiplier;
+  }
+
+  public EntityType<?> getType() {
+    return this.type;
+  }
+
+  public EliteMode getMode() {
+    return this.mode;
+  }
+
+  /**
+   * Buffs the entity, unless it already is. Buffs left over from the other
+   * mode are removed.
+   */
+  public void apply(LivingEntity entity) {
+    if (this.mode == EliteMode.ATTRIBUTES) {
+      this.removeEffects(entity);
+      this.addModifiers(entity);
+    } else {
+      this.removeModifiers(entity);
+      this.addEffects(entity);
+    }
+  }
+
+  /**
+   * Scales the damage an entity of this type takes after armor, like the
+   * resistance effect would.
+   */
+  public float getDamageTaken(DamageSource source, float amount) {
+    if (this.mode != EliteMode.ATTRIBUTES || source.isBypassMagic() || source == DamageSource.OUT_OF_WORLD) {
+      return amount;
+    }
+    return amount * this.damageTakenMultiplier;
+  }
+
+  private void addEffects(LivingEntity entity) {
+    for (EffectInstance template : this.effects) {
+      EffectInstance active = entity.getEffect(template.getEffect());
+      // Effects that are still running from before the entity was saved are kept
+      if (active != null && this.isFromTemplate(active, template)) {
+        continue;
+      }
+
+      entity.removeEffect(template.getEffect());
+      entity.addEffect(new EffectInstance(template));
+    }
+  }
+
+  private void removeEffects(LivingEntity entity) {
+    // The effects of EFFECTS mode can be either set, depending on the config when the entity was buffed
+    this.removeEffects(entity, this.effects);
+    this.removeEffects(entity, this.boosts);
+  }
+
+  private void removeEffects(LivingEntity entity, EffectInstance[] templates) {
+    for (EffectInstance template : templates) {
+      EffectInstance active = entity.getEffect(template.getEffect());
+      if (active != null && this.isFromTemplate(active, template)) {
+        entity.removeEffect(template.getEffect());
+      }
+    }
+  }
+
+  private boolean isFromTemplate(EffectInstance active, EffectInstance template) {
+    return active.getAmplifier() == template.getAmplifier() && active.getDuration() > template.getDuration() / 2;
+  }
+
+  private void addModifiers(LivingEntity entity) {
+    for (int i = 0; i < this.modifiers.size(); i++) {
+      ModifiableAttributeInstance attribute = entity.getAttribute(this.attributes.get(i));
+      // Permanent modifiers are saved with the entity, so this only happens once
+      if (attribute != null && attribute.getModifier(this.modifiers.get(i).getId()) == null) {
+        attribute.addPermanentModifier(this.modifiers.get(i));
+      }
+    }
+  }
+
+  private void removeModifiers(LivingEntity entity) {
+    for (int i = 0; i < this.modifiers.size(); i++) {
+      ModifiableAttributeInstance attribute = entity.getAttribute(this.attributes.get(i));
+      if (attribute != null) {
+        attribute.removeModifier(this.modifiers.get(i).getId());
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.elite;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMaps;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.entity.EntityType;
+import net.minecraft.potion.EffectInstance;
+import net.minecraft.potion.Effects;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.event.lifecycle.FMLLoadCompleteEvent;
+import net.minecraftforge.registries.ForgeRegistries;
+
+/**
+ * The {@link EliteProfile} of every buffed entity type, looked up by type
+ * identity. The table is built once the registries are frozen, so entity types
+ * from other mods are resolved to their final instances.
+ */
+public final class EliteProfiles {
+  private static final List<ResourceLocation> ELITE_TYPES = Arrays.asList(
+    new ResourceLocation("minecraft", "creeper"),
+    new ResourceLocation("minecraft", "zombie"),
+    new ResourceLocation("minecraft", "skeleton"),
+    new ResourceLocation("minecraft", "spider"),
+    new ResourceLocation("minecraft", "cave_spider"),
+    new ResourceLocation("minecraft", "zombie_villager"),
+    new ResourceLocation("minecraft", "husk"),
+    new ResourceLocation("desolation", "blackened"),
+    new ResourceLocation("eidolon", "zombie_brute"),
+    new ResourceLocation("eidolon", "wraith")
+  );
+  /**
+   * Endless Speed II, Strength II and Resistance II.
+   */
+  private static final EffectInstance[] BOOSTS = {
+    new EffectInstance(Effects.MOVEMENT_SPEED, Integer.MAX_VALUE, 1, true, true),
+    new EffectInstance(Effects.DAMAGE_BOOST, Integer.MAX_VALUE, 1, true, true),
+    new EffectInstance(Effects.DAMAGE_RESISTANCE, Integer.MAX_VALUE, 1, true, true)
+  };
+  /**
+   * The effects of earlier versions, which swapped the duration and the
+   * amplifier, so they run out after a tick.
+   */
+  private static final EffectInstance[] LEGACY_EFFECTS = {
+    new EffectInstance(Effects.MOVEMENT_SPEED, 1, Integer.MAX_VALUE, true, true),
+    new EffectInstance(Effects.DAMAGE_BOOST, 1, Integer.MAX_VALUE, true, true),
+    new EffectInstance(Effects.DAMAGE_RESISTANCE, 1, Integer.MAX_VALUE, true, true)
+  };
+
+  private volatile Reference2ObjectMap<EntityType<?>, EliteProfile> profiles = Reference2ObjectMaps.emptyMap();
+
+  /**
+   * @return The type's profile, or null if it isn't buffed
+   */
+  @Nullable
+  public EliteProfile get(EntityType<?> type) {
+    return this.profiles.get(type);
+  }
+
+  public Collection<EliteProfile> getProfiles() {
+    return Collections.unmodifiableCollection(this.profiles.values());
+  }
+
+  public void onLoadComplete(FMLLoadCompleteEvent event) {
+    Map<ResourceLocation, EliteMode> modes = getModeOverrides();
+    EffectInstance[] effects = IETConfig.ELITE_PERMANENT_EFFECTS.get() ? BOOSTS : LEGACY_EFFECTS;
+    Reference2ObjectMap<EntityType<?>, EliteProfile> profiles = new Reference2ObjectOpenHashMap<>();
+    for (ResourceLocation id : ELITE_TYPES) {
+      // The entity registry falls back to pigs for unknown ids
+      if (!ForgeRegistries.ENTITIES.containsKey(id)) {
+        LOGGER.debug("Not buffing {}, it isn't registered", id);
+        continue;
+      }
+
+      EntityType<?> type = ForgeRegistries.ENTITIES.getValue(id);
+      profiles.put(type, new EliteProfile(type, modes.getOrDefault(id, IETConfig.ELITE_DEFAULT_MODE.get()), effects, BOOSTS));
+    }
+    this.profiles = profiles;
+    EliteActivation.setTypes(profiles.keySet());
+  }
+
+  private static Map<ResourceLocation, EliteMode> getModeOverrides() {
+    Map<ResourceLocation, EliteMode> modes = new HashMap<>();
+    for (String entry : IETConfig.ELITE_MODE_OVERRIDES.get()) {
+      int separator = entry.indexOf('=');
+      ResourceLocation id = ResourceLocation.tryParse(entry.substring(0, separator).trim());
+      String mode = entry.substring(separator + 1).trim().toUpperCase(Locale.ROOT);
+      if (id == null) {
+        LOGGER.warn("Ignoring elite mode override \"{}\", the entity id is invalid", entry);
+        continue;
+      }
+
+      try {
+        modes.put(id, EliteMode.valueOf(mode));
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("Ignoring elite mode override \"{}\", there's no mode called {}", entry, mode);
+      }
+    }
+    return modes;
+  }
+}
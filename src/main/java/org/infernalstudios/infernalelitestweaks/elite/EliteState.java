@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.elite;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.MOD_ID;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.nbt.ByteNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.util.Direction;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.common.capabilities.Capability;
+import net.minecraftforge.common.capabilities.CapabilityInject;
+import net.minecraftforge.common.capabilities.CapabilityManager;
+import net.minecraftforge.common.capabilities.ICapabilitySerializable;
+import net.minecraftforge.common.util.LazyOptional;
+
+/**
+ * Per-entity elite flags, packed into a single byte. Only attached to entity
+ * types that have an {@link EliteProfile}.
+ * <p>
+ * Only {@link #CHARGE_CHECKED} is saved with the entity. The buffed flags
+ * aren't, so elites are buffed again whenever they're loaded and pick up
+ * config changes. Buffing again keeps the effects and modifiers that are
+ * already there.
+ */
+public final class EliteState {
+  @CapabilityInject(EliteState.class)
+  public static Capability<EliteState> CAPABILITY = null;
+
+  public static final ResourceLocation ID = new ResourceLocation(MOD_ID, "elite_state");
+
+  /**
+   * The entity was already rolled for being charged.
+   */
+  public static final byte CHARGE_CHECKED = 1;
+  /**
+   * The entity was buffed with {@link EliteMode#EFFECTS}.
+   */
+  public static final byte BUFFED_EFFECTS = 2;
+  /**
+   * The entity was buffed with {@link EliteMode#ATTRIBUTES}.
+   */
+  public static final byte BUFFED_ATTRIBUTES = 4;
+  private static final byte SAVED_FLAGS = CHARGE_CHECKED;
+
+  /**
+   * The entity tag that marked checked creepers before this capability.
+   */
+  public static final String LEGACY_CHARGE_CHECKED_TAG = MOD_ID + ".checkedForChargedEntity";
+
+  private byte flags;
+
+  public boolean has(byte flag) {
+    return (this.flags & flag) != 0;
+  }
+
+  public void set(byte flag) {
+    this.flags |= flag;
+  }
+
+  public void clear(byte flag) {
+    this.flags &= ~flag;
+  }
+
+  public static byte getBuffedFlag(EliteMode mode) {
+    return mode == EliteMode.ATTRIBUTES ? BUFFED_ATTRIBUTES : BUFFED_EFFECTS;
+  }
+
+  @Nullable
+  public static EliteState get(Entity entity) {
+    return entity.getCapability(CAPABILITY).orElse(null);
+  }
+
+  public static void register() {
+    CapabilityManager.INSTANCE.register(EliteState.class, new Capability.IStorage<EliteState>() {
+      @Override
+      public INBT writeNBT(Capability<EliteState> capability, EliteState instance, Direction side) {
+        return ByteNBT.valueOf((byte) (instance.flags & SAVED_FLAGS));
+      }
+
+      @Override
+      public void readNBT(Capability<EliteState> capability, EliteState instance, Direction side, INBT nbt) {
+        instance.flags = (byte) (((ByteNBT) nbt).getAsByte() & SAVED_FLAGS);
+      }
+    }, EliteState::new);
+  }
+
+  public static final class Provider implements ICapabilitySerializable<ByteNBT> {
+    private final EliteState state = new EliteState();
+    private final LazyOptional<EliteState> optional = LazyOptional.of(() -> this.state);
+
+    @Override
+    public <T> LazyOptional<T> getCapability(Capability<T> cap, @Nullable Direction side) {
+      return CAPABILITY.orEmpty(cap, this.optional);
+    }
+
+    @Override
+    public ByteNBT serializeNBT() {
+      return ByteNBT.valueOf((byte) (this.state.flags & SAVED_FLAGS));
+    }
+
+    @Override
+    public void deserializeNBT(ByteNBT nbt) {
+      // Entities saved by earlier versions also have the buffed flags
+      this.state.flags = (byte) (nbt.getAsByte() & SAVED_FLAGS);
+    }
+  }
+}
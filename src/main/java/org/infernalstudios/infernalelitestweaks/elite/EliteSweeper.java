@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.elite;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
+import net.minecraft.entity.MobEntity;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.entity.EntityLeaveWorldEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+/**
+ * Despawns elites that pile up far away from every player, like those in
+ * chunks that are loaded but don't tick, where vanilla never despawns them.
+ * The elites of each world are scanned a slice per tick, and once a pass is
+ * done the elites beyond {@link IETConfig#SWEEPER_MAX_FAR_ELITES} that are
+ * further than {@link IETConfig#SWEEPER_RANGE} blocks from every player are
+ * despawned over the next ticks, in the order they joined the world.
+ * Persistent and named elites are never despawned.
+ * <p>
+ * The join order isn't the elites' age, an elite joins again whenever its
+ * chunk is loaded again, and then counts as the newest.
+ */
+public final class EliteSweeper {
+  private final EliteProfiles eliteProfiles;
+  private final Map<ServerWorld, Sweep> sweeps = new HashMap<>();
+
+  private long scanned;
+  private long despawned;
+  private long totalNanos;
+  private long maxTickNanos;
+  private long ticks;
+
+  public EliteSweeper(EliteProfiles eliteProfiles) {
+    this.eliteProfiles = eliteProfiles;
+  }
+
+  @SubscribeEvent(priority = EventPriority.LOWEST)
+  public void onEntityJoin(EntityJoinWorldEvent event) {
+    if (event.getWorld() instanceof ServerWorld && event.getEntity() instanceof MobEntity && this.eliteProfiles.get(event.getEntity().getType()) != null) {
+      this.sweeps.computeIfAbsent((ServerWorld) event.getWorld(), world -> new Sweep()).elites.add((MobEntity) event.getEntity());
+    }
+  }
+
+  @SubscribeEvent
+  public void onEntityLeave(EntityLeaveWorldEvent event) {
+    Sweep sweep = this.sweeps.get(event.getWorld());
+    if (sweep != null && event.getEntity() instanceof MobEntity) {
+      sweep.elites.remove(event.getEntity());
+    }
+  }
+
+  @SubscribeEvent
+  public void onWorldUnload(WorldEvent.Unload event) {
+    this.sweeps.remove(event.getWorld());
+  }
+
+  @SubscribeEvent
+  public void onWorldTick(TickEvent.WorldTickEvent event) {
+    if (event.phase != TickEvent.Phase.END || !IETConfig.SWEEPER_ENABLED.get() || !(event.world instanceof ServerWorld)) {
+      return;
+    }
+
+    Sweep sweep = this.sweeps.get(event.world);
+    if (sweep == null || sweep.elites.isEmpty() && sweep.despawns.isEmpty()) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    long deadline = start + (long) (IETConfig.SWEEPER_BUDGET_MILLIS.get() * 1_000_000L);
+    // Despawning what the last pass found comes first, so the next pass sees the result
+    if (!sweep.despawns.isEmpty()) {
+      int budget = IETConfig.SWEEPER_DESPAWNS_PER_TICK.get();
+      for (int i = 0; i < budget && !sweep.despawns.isEmpty() && System.nanoTime() < deadline; i++) {
+        MobEntity entity = sweep.despawns.poll();
+        // Players can come close or the elite can be named since it was picked
+        if (this.canDespawn(entity)) {
+          entity.remove();
+          this.despawned++;
+        }
+      }
+    } else {
+      this.scan((ServerWorld) event.world, sweep, deadline);
+    }
+
+    long nanos = System.nanoTime() - start;
+    this.ticks++;
+    this.totalNanos += nanos;
+    this.maxTickNanos = Math.max(this.maxTickNanos, nanos);
+  }
+
+  private void scan(ServerWorld world, Sweep sweep, long deadline) {
+    if (sweep.pass == null) {
+      // The elites can join and leave during a pass, so it goes over a copy
+      sweep.pass = sweep.elites.toArray(new MobEntity[0]);
+      sweep.index = 0;
+    }
+
+    int slice = IETConfig.SWEEPER_SLICE_SIZE.get();
+    for (int i = 0; i < slice && sweep.index < sweep.pass.length && System.nanoTime() < deadline; i++) {
+      MobEntity entity = sweep.pass[sweep.index++];
+      this.scanned++;
+      if (this.canDespawn(entity)) {
+        sweep.candidates.add(entity);
+      }
+    }
+    if (sweep.index < sweep.pass.length) {
+      return;
+    }
+
+    // The pass went over the elites in join order, so the first candidates joined first
+    int surplus = sweep.candidates.size() - IETConfig.SWEEPER_MAX_FAR_ELITES.get();
+    if (surplus > 0) {
+      LOGGER.debug("Despawning {} of {} elites far from players in {}", surplus, sweep.candidates.size(), world.dimension().location());
+      sweep.despawns.addAll(sweep.candidates.subList(0, surplus));
+    }
+    sweep.candidates.clear();
+    sweep.pass = null;
+  }
+
+  private boolean canDespawn(MobEntity entity) {
+    if (!entity.isAlive() || entity.isPersistenceRequired() || entity.requiresCustomPersistence() || entity.hasCustomName() || entity.isPassenger() || entity.isVehicle()) {
+      return false;
+    }
+    return !entity.level.hasNearbyAlivePlayer(entity.getX(), entity.getY(), entity.getZ(), IETConfig.SWEEPER_RANGE.get());
+  }
+
+  public long getScanned() {
+    return this.scanned;
+  }
+
+  public long getDespawned() {
+    return this.despawned;
+  }
+
+  /**
+   * @return Average time in milliseconds the sweeper took per world tick it
+   *         had work in
+   */
+  public double getAverageTickMillis() {
+    return this.ticks == 0 ? 0.0D : this.totalNanos / (double) this.ticks / 1_000_000.0D;
+  }
+
+  public double getMaxTickMillis() {
+    return this.maxTickNanos / 1_000_000.0D;
+  }
+
+  public void resetMetrics() {
+    this.scanned = 0;
+    this.despawned = 0;
+    this.totalNanos = 0;
+    this.maxTickNanos = 0;
+    this.ticks = 0;
+  }
+
+  private static final class Sweep {
+    /**
+     * The world's elites, in join order.
+     */
+    private final ReferenceLinkedOpenHashSet<MobEntity> elites = new ReferenceLinkedOpenHashSet<>();
+    private final List<MobEntity> candidates = new ArrayList<>();
+    private final Deque<MobEntity> despawns = new ArrayDeque<>();
+    private MobEntity[] pass;
+    private int index;
+  }
+}
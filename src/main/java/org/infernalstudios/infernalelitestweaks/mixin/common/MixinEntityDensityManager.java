@@ -16,18 +16,29 @@
 
 package org.infernalstudios.infernalelitestweaks.mixin.common;
 
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+import org.infernalstudios.infernalelitestweaks.stats.IETStats;
 import org.infernalstudios.infernalelitestweaks.util.LevelGetter;
+import org.infernalstudios.infernalelitestweaks.util.LocalMobCaps;
+import org.infernalstudios.infernalelitestweaks.util.SpawnCapGovernor;
+import org.infernalstudios.infernalelitestweaks.util.SpawnCapTable;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import net.minecraft.entity.EntityClassification;
-import net.minecraft.world.DimensionType;
+import net.minecraft.entity.MobEntity;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.IChunk;
 import net.minecraft.world.server.ServerWorld;
 import net.minecraft.world.spawner.WorldEntitySpawner;
 
@@ -43,9 +54,61 @@ public class MixinEntityDensityManager implements LevelGetter {
 
   public ServerWorld level;
 
+  /**
+   * The cap of each classification by ordinal, -1 where the vanilla cap
+   * applies, or null if none of them are changed.
+   */
+  @Nullable
+  private int[] spawnCaps;
+
+  /**
+   * The monster counts around each player, or null if players don't have
+   * their own caps.
+   */
+  @Nullable
+  private LocalMobCaps localMobCaps;
+  private int localMonsterCap;
+
   @Override
   public void setLevel(World world) {
     this.level = (ServerWorld) world;
+
+    // Computed once per spawn state, so the check for each category is a single lookup
+    double[] multipliers = SpawnCapTable.getMultipliers(this.level.dimension());
+    this.localMobCaps = null;
+    if (IETConfig.LOCAL_CAPS_ENABLED.get()) {
+      this.localMobCaps = LocalMobCaps.get(this.level);
+      this.localMobCaps.update(this.level);
+
+      // The world's monster cap has to be checked here too, so it can't be left to vanilla
+      if (multipliers == null) {
+        multipliers = new double[EntityClassification.values().length];
+        Arrays.fill(multipliers, Double.NaN);
+      } else {
+        multipliers = multipliers.clone();
+      }
+      double multiplier = multipliers[EntityClassification.MONSTER.ordinal()];
+      multiplier = Math.min(Double.isNaN(multiplier) ? 1.0D : multiplier, SpawnCapGovernor.getMultiplier());
+      multipliers[EntityClassification.MONSTER.ordinal()] = multiplier;
+      // Vanilla's spawnable chunk count for a single player
+      int magicNumber = WorldEntitySpawnerAccess.getMagicNumber();
+      this.localMonsterCap = SpawnCapTable.getCap(EntityClassification.MONSTER, magicNumber, multiplier, magicNumber);
+    }
+
+    if (multipliers == null) {
+      this.spawnCaps = null;
+      return;
+    }
+
+    this.spawnCaps = new int[multipliers.length];
+    for (EntityClassification classification : EntityClassification.values()) {
+      double multiplier = multipliers[classification.ordinal()];
+      if (classification == EntityClassification.MONSTER) {
+        multiplier = Math.min(multiplier, SpawnCapGovernor.getMultiplier());
+      }
+      this.spawnCaps[classification.ordinal()] = Double.isNaN(multiplier) ? -1
+          : SpawnCapTable.getCap(classification, this.spawnableChunkCount, multiplier, WorldEntitySpawnerAccess.getMagicNumber());
+    }
   }
 
   @Override
@@ -53,19 +116,32 @@ public class MixinEntityDensityManager implements LevelGetter {
     return this.level;
   }
 
-  private DimensionType overworldDimensionType;
-
   @Inject(method = "canSpawnForCategory", at = @At("HEAD"), cancellable = true)
   private void modifySpawnCapByCategory(EntityClassification entityClassification, CallbackInfoReturnable<Boolean> cir) {
-    if (!this.level.isClientSide()) {
-      if (overworldDimensionType == null) {
-        this.overworldDimensionType = this.level.getServer().getLevel(World.OVERWORLD).dimensionType();
-      }
-      if (this.level != null && this.level.dimensionType() == this.overworldDimensionType && entityClassification == EntityClassification.MONSTER) {
-        double multiplier = 5;
-        int i = (int) (entityClassification.getMaxInstancesPerChunk() * (this.spawnableChunkCount * multiplier) / WorldEntitySpawnerAccess.getMagicNumber());
-        cir.setReturnValue(this.unmodifiableMobCategoryCounts.getInt(entityClassification) < i);
+    if (this.spawnCaps != null) {
+      int cap = this.spawnCaps[entityClassification.ordinal()];
+      if (cap >= 0) {
+        boolean canSpawn = this.unmodifiableMobCategoryCounts.getInt(entityClassification) < cap;
+        if (canSpawn && this.localMobCaps != null && entityClassification == EntityClassification.MONSTER) {
+          canSpawn = this.localMobCaps.canSpawn(this.localMonsterCap);
+        }
+        IETStats.recordSpawnDecision(this.level.dimension(), entityClassification, canSpawn);
+        cir.setReturnValue(canSpawn);
       }
     }
   }
+
+  @Inject(method = "canSpawnForCategory", at = @At("RETURN"))
+  private void recordVanillaSpawnCap(EntityClassification entityClassification, CallbackInfoReturnable<Boolean> cir) {
+    if (this.level != null) {
+      IETStats.recordSpawnDecision(this.level.dimension(), entityClassification, cir.getReturnValueZ());
+    }
+  }
+
+  @Inject(method = "afterSpawn", at = @At("HEAD"))
+  private void countLocalSpawn(MobEntity entity, IChunk chunk, CallbackInfo ci) {
+    if (this.localMobCaps != null && entity.getType().getCategory() == EntityClassification.MONSTER) {
+      this.localMobCaps.onSpawn(entity.getX(), entity.getZ());
+    }
+  }
 }
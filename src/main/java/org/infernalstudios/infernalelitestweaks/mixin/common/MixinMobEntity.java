@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.mixin.common;
+
+import org.infernalstudios.infernalelitestweaks.elite.EliteActivation;
+import org.infernalstudios.infernalelitestweaks.util.MobCategoryCounter;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import net.minecraft.entity.MobEntity;
+
+@Mixin(MobEntity.class)
+public class MixinMobEntity {
+  /**
+   * Tick until which the mob's AI runs every tick, if it's throttled.
+   */
+  @Unique
+  private int activeUntil;
+
+  @Inject(method = "setPersistenceRequired", at = @At("HEAD"))
+  private void uncountPersistent(CallbackInfo ci) {
+    MobCategoryCounter.onPersistenceRequired((MobEntity) (Object) this);
+  }
+
+  @Inject(method = "serverAiStep", at = @At("HEAD"), cancellable = true)
+  private void throttleElite(CallbackInfo ci) {
+    MobEntity self = (MobEntity) (Object) this;
+    if (!EliteActivation.isThrottled(self)) {
+      return;
+    }
+
+    if (EliteActivation.shouldWake(self)) {
+      this.activeUntil = self.tickCount + EliteActivation.getWakeTicks();
+    }
+    boolean active = self.tickCount < this.activeUntil;
+    EliteActivation.count(self, active);
+    // Offset by the id, so throttled mobs don't all run their AI on the same tick
+    if (!active && (self.tickCount + self.getId()) % EliteActivation.getTickRate() != 0) {
+      // The move, look and jump controls are skipped too, stop the mob instead of
+      // letting it walk on with the inputs of its last step
+      self.setZza(0.0F);
+      self.setXxa(0.0F);
+      self.setYya(0.0F);
+      self.setJumping(false);
+      ci.cancel();
+    }
+  }
+}
@@ -18,14 +18,20 @@ package org.infernalstudios.infernalelitestweaks.mixin.common;
 
 import javax.annotation.Nullable;
 
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+import org.infernalstudios.infernalelitestweaks.stats.TickRecorder;
 import org.infernalstudios.infernalelitestweaks.util.LevelGetter;
+import org.infernalstudios.infernalelitestweaks.util.MobCategoryCounter;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.ModifyArg;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityClassification;
 import net.minecraft.world.server.ServerChunkProvider;
 import net.minecraft.world.server.ServerWorld;
 import net.minecraft.world.spawner.WorldEntitySpawner;
@@ -40,9 +46,32 @@ public class MixinServerChunkProvider {
   @Final
   public ServerWorld level;
 
+  @ModifyArg(method = "tickChunks", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/spawner/WorldEntitySpawner;createState"), index = 1)
+  private Iterable<Entity> getCountedEntities(Iterable<Entity> entities) {
+    if (!IETConfig.COUNTER_ENABLED.get() || IETConfig.COUNTER_VERIFY.get()) {
+      return entities;
+    }
+
+    // The counts are replaced below, the spawner only has to see the entities that add to the mob density
+    MobCategoryCounter counter = MobCategoryCounter.get(this.level);
+    counter.update(this.level);
+    return counter.getChargedEntities();
+  }
+
   @Inject(method = "tickChunks", at = @At(value = "INVOKE", target = "Lnet/minecraft/profiler/IProfiler;pop()V", ordinal = 0))
   private void setDensityManagerLevel(CallbackInfo ci) {
+    if (IETConfig.COUNTER_ENABLED.get()) {
+      MobCategoryCounter counter = MobCategoryCounter.get(this.level);
+      if (IETConfig.COUNTER_VERIFY.get()) {
+        counter.verify(this.level, ((EntityDensityManagerAccess) this.lastSpawnState).getMobCategoryCounts());
+      } else {
+        counter.copyTo(((EntityDensityManagerAccess) this.lastSpawnState).getMobCategoryCounts());
+      }
+    }
     ((LevelGetter) this.lastSpawnState).setLevel(this.level);
+    if (TickRecorder.isRecording()) {
+      TickRecorder.recordMonsters(((EntityDensityManagerAccess) this.lastSpawnState).getMobCategoryCounts().getInt(EntityClassification.MONSTER));
+    }
   }
 }
 
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.mixin.common;
+
+import org.infernalstudios.infernalelitestweaks.util.LocalMobCaps;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.spawner.WorldEntitySpawner;
+
+@Mixin(WorldEntitySpawner.class)
+public class MixinWorldEntitySpawner {
+  @Inject(method = "spawnForChunk", at = @At("HEAD"))
+  private static void startSpawningChunk(ServerWorld world, Chunk chunk, WorldEntitySpawner.EntityDensityManager densityManager, boolean spawnFriendlies, boolean spawnMonsters, boolean spawnPersistent, CallbackInfo ci) {
+    LocalMobCaps.setSpawningChunk(chunk);
+  }
+
+  @Inject(method = "spawnForChunk", at = @At("RETURN"))
+  private static void stopSpawningChunk(ServerWorld world, Chunk chunk, WorldEntitySpawner.EntityDensityManager densityManager, boolean spawnFriendlies, boolean spawnMonsters, boolean spawnPersistent, CallbackInfo ci) {
+    LocalMobCaps.setSpawningChunk(null);
+  }
+}
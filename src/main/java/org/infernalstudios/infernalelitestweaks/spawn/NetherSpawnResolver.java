@@ -0,0 +1,844 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.spawn;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.MOD_ID;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+import org.infernalstudios.infernalelitestweaks.stats.IETStats;
+import org.infernalstudios.infernalelitestweaks.stats.SpawnResolutionEvent;
+import org.infernalstudios.infernalelitestweaks.stats.TickRecorder;
+import org.infernalstudios.infernalelitestweaks.util.BiomeSearch;
+import org.infernalstudios.infernalelitestweaks.util.ChunkSnapshot;
+import org.infernalstudios.infernalelitestweaks.util.ChunkSnapshotCache;
+import org.infernalstudios.infernalelitestweaks.util.IETUtil;
+import org.infernalstudios.infernalexp.init.IEBiomes;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.Blocks;
+import net.minecraft.block.FallingBlock;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.vector.Vector3d;
+import net.minecraft.world.DimensionType;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.server.TicketType;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.living.LivingAttackEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.ExplosionEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.LogicalSide;
+import net.minecraftforge.fml.event.server.FMLServerStartingEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
+import net.minecraftforge.registries.ForgeRegistries;
+
+/**
+ * Resolves nether spawn positions without blocking the server thread.
+ * <p>
+ * The biome search runs on a bounded worker pool, while the player is held in
+ * place and can't take damage. The safe position searches around each biome
+ * candidate run in parallel on a fork/join pool against {@link ChunkSnapshot}s: loaded chunks are copied, chunks that were
+ * saved to disk are read straight from the region files, and only the rest are
+ * loaded with tickets, a few chunks per tick. The destination chunk is loaded
+ * the same way and the teleport is applied on the server thread once it's
+ * ready. Positions that were resolved before are reused from the
+ * {@link SpawnPointCache} when they're still safe, and {@link SpawnWarmup}
+ * resolves the ones around the world spawn before anyone needs them.
+ * <p>
+ * Players that spawn near the same origin at once, like after a restart,
+ * share a single search and are spread over the safe positions around the one
+ * it finds.
+ */
+public final class NetherSpawnResolver {
+  private static final TicketType<ChunkPos> SPAWN_TICKET = TicketType.create(MOD_ID + ":nether_spawn", Comparator.comparingLong(ChunkPos::toLong));
+
+  private final Map<UUID, PendingSpawn> pending = new HashMap<>();
+  /**
+   * Searches that are queued or running, by the {@link SpawnPointCache} origin
+   * key they're resolving, so players spawning near the same origin share one.
+   */
+  private final Long2ObjectMap<SpawnSearch> searches = new Long2ObjectOpenHashMap<>();
+  private final Deque<SpawnSearch> queued = new ArrayDeque<>();
+  private final List<SpawnSearch> warmUps = new ArrayList<>();
+  private final List<ChunkWait> chunkWaits = new ArrayList<>();
+  private int chunkLoadBudget;
+  private int warmUpChunkLoadBudget;
+
+  @Nullable
+  private MinecraftServer server;
+  @Nullable
+  private ThreadPoolExecutor workers;
+  @Nullable
+  private ForkJoinPool safeSearchPool;
+
+  /**
+   * Scales an overworld position to the nether and keeps it inside the
+   * nether's world border, like a portal would.
+   */
+  public static BlockPos getOrigin(ServerWorld overworld, ServerWorld nether, double posX, double posY, double posZ) {
+    double scale = DimensionType.getTeleportationScale(overworld.dimensionType(), nether.dimensionType());
+    posX /= scale;
+    posZ /= scale;
+
+    double d0 = Math.min(-2.9999872E7D, nether.getWorldBorder().getMinX() + 16.0D);
+    double d1 = Math.min(-2.9999872E7D, nether.getWorldBorder().getMinZ() + 16.0D);
+    double d2 = Math.min(2.9999872E7D, nether.getWorldBorder().getMaxX() - 16.0D);
+    double d3 = Math.min(2.9999872E7D, nether.getWorldBorder().getMaxZ() - 16.0D);
+    posX = MathHelper.clamp(posX, d0, d2);
+    posZ = MathHelper.clamp(posZ, d1, d3);
+    return new BlockPos(posX, posY, posZ);
+  }
+
+  /**
+   * @return The biomes players are spawned in, the ones that aren't
+   *         registered are left out
+   */
+  public static List<Biome> getSpawnableBiomes() {
+    Biome crimsonForest = ForgeRegistries.BIOMES.getValue(new ResourceLocation("minecraft", "crimson_forest"));
+    Biome warpedForest = ForgeRegistries.BIOMES.getValue(new ResourceLocation("minecraft", "warped_forest"));
+    Biome glowstoneCanyon = IEBiomes.GLOWSTONE_CANYON.get();
+
+    List<Biome> spawnableBiomes = new ArrayList<>();
+
+    if (crimsonForest != null) {
+      spawnableBiomes.add(crimsonForest);
+    } else {
+      LOGGER.info("Couldn't add crimsonForest to spawnableBiomes, it is null.");
+    }
+
+    if (warpedForest != null) {
+      spawnableBiomes.add(warpedForest);
+    } else {
+      LOGGER.info("Couldn't add warpedForest to spawnableBiomes, it is null.");
+    }
+
+    if (glowstoneCanyon != null) {
+      spawnableBiomes.add(glowstoneCanyon);
+    } else {
+      LOGGER.info("Couldn't add glowstoneCanyon to spawnableBiomes, it is null.");
+    }
+    return spawnableBiomes;
+  }
+
+  /**
+   * Starts resolving a nether spawn position for the player. Biome positions
+   * are searched around {@code origin}, which is already scaled to the nether.
+   * <p>
+   * Players whose origins fall in the same {@link SpawnPointCache} cell join
+   * the search that's already queued or running for it, and are spread
+   * around the position it finds. New searches are queued and started under
+   * the {@link IETConfig#SPAWN_SEARCHES_PER_TICK} budget.
+   */
+  public void request(ServerPlayerEntity player, ServerWorld nether, BlockPos origin, List<Biome> biomes) {
+    PendingSpawn previous = this.pending.get(player.getUUID());
+    if (previous != null) {
+      this.cancel(previous);
+    }
+
+    if (this.workers == null || this.server == null) {
+      LOGGER.info("Couldn't spawn player {} in the nether, the spawn resolver isn't running", player.getScoreboardName());
+      return;
+    }
+
+    long originKey = SpawnPointCache.getOriginKey(origin);
+    SpawnSearch search = this.searches.get(originKey);
+    if (search == null) {
+      search = new SpawnSearch(nether, origin, biomes, false);
+      this.searches.put(originKey, search);
+      this.queued.add(search);
+    } else {
+      IETStats.SPAWN_REQUESTS_JOINED.increment();
+    }
+
+    PendingSpawn spawn = new PendingSpawn(player, search);
+    search.spawns.add(spawn);
+    this.pending.put(spawn.playerId, spawn);
+  }
+
+  /**
+   * Resolves the search's origin, reusing the cached position if there is
+   * one. Must be called on the server thread.
+   */
+  private void start(SpawnSearch search) {
+    CompletableFuture<BlockPos> resolved;
+    BlockPos cached = IETConfig.SPAWN_CACHE_ENABLED.get() ? SpawnPointCache.get(search.nether).get(search.originKey) : null;
+    if (cached != null) {
+      search.cached = true;
+      // Reuse the cached position if it's still safe, otherwise fall back to a full search
+      resolved = this.awaitChunks(search, IETUtil.getPlacementChunks(cached)).thenCompose(v -> {
+        if (IETUtil.isValidSpawnPosition(search.nether, cached)) {
+          return CompletableFuture.completedFuture(cached);
+        }
+        SpawnPointCache.get(search.nether).remove(search.originKey);
+        return this.search(search);
+      });
+    } else {
+      resolved = this.search(search);
+    }
+
+    resolved
+      .thenComposeAsync(spawnPos -> {
+        if (spawnPos == null) {
+          return CompletableFuture.completedFuture(null);
+        }
+        // Players that joined the search are spread around the position, so the chunks around it have to be loaded too
+        return this.awaitChunks(search, IETUtil.getSpreadChunks(spawnPos)).thenApply(v -> spawnPos);
+      }, this.server)
+      .whenCompleteAsync((spawnPos, throwable) -> this.finish(search, spawnPos, throwable), this.server);
+  }
+
+  /**
+   * Resolves a spawn position for the origin without a player and stores it in
+   * the {@link SpawnPointCache}, so it's ready before anyone spawns there. The
+   * chunks the search needs are loaded under the budget set with
+   * {@link #setWarmUpChunkLoadBudget} instead of the players' one.
+   * @return A future that completes on the server thread with the cached
+   *         position, or null if no safe position was found
+   */
+  public CompletableFuture<BlockPos> warmUp(ServerWorld nether, BlockPos origin, List<Biome> biomes) {
+    MinecraftServer server = this.server;
+    if (this.workers == null || server == null) {
+      CompletableFuture<BlockPos> stopped = new CompletableFuture<>();
+      stopped.completeExceptionally(new CancellationException());
+      return stopped;
+    }
+
+    SpawnSearch search = new SpawnSearch(nether, origin, biomes, true);
+    this.warmUps.add(search);
+    return this.search(search)
+      .thenComposeAsync(spawnPos -> {
+        if (spawnPos == null) {
+          return CompletableFuture.completedFuture(null);
+        }
+        return this.awaitChunks(search, IETUtil.getPlacementChunks(spawnPos)).thenApply(v -> {
+          // The fallback position isn't safe, so it's not worth remembering
+          if (search.cancelled || !IETUtil.isValidSpawnPosition(nether, spawnPos)) {
+            return null;
+          }
+          SpawnPointCache.get(nether).put(search.originKey, spawnPos);
+          return spawnPos;
+        });
+      }, server)
+      .whenCompleteAsync((spawnPos, throwable) -> {
+        this.warmUps.remove(search);
+        search.releaseTickets();
+      }, server);
+  }
+
+  /**
+   * Sets how many chunks warm-up searches can start loading or generating in
+   * the next tick.
+   */
+  public void setWarmUpChunkLoadBudget(int budget) {
+    this.warmUpChunkLoadBudget = budget;
+  }
+
+  /**
+   * Searches for the nearest safe position in one of the biomes. The biome
+   * search runs on a worker thread and the safe position searches on the
+   * fork/join pool, the chunks are snapshotted on the server thread in between.
+   */
+  private CompletableFuture<BlockPos> search(SpawnSearch search) {
+    ForkJoinPool pool = this.safeSearchPool;
+    int bands = IETConfig.SAFE_SEARCH_RING_BANDS.get();
+    try {
+      search.biomeSearch = CompletableFuture.supplyAsync(() -> {
+        long start = System.nanoTime();
+        BiomeSearch.Result result = IETUtil.findSpawnableBiomePositions(search.nether, search.biomes, search.origin, 9999);
+        search.biomeSearchNanos = System.nanoTime() - start;
+        search.biomeSamples = result.getSamples();
+        IETStats.BIOME_SEARCH.record(search.biomeSearchNanos);
+        IETStats.BIOME_SAMPLES.add(result.getSamples());
+        return result;
+      }, this.workers);
+    } catch (RejectedExecutionException e) {
+      CompletableFuture<BlockPos> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(e);
+      return rejected;
+    }
+
+    return search.biomeSearch
+      .thenApply(result -> {
+        LOGGER.debug("Biome search for {} took {} samples", search, result.getSamples());
+        return result.getPositions();
+      })
+      .thenComposeAsync(candidates -> this.snapshotChunks(search, IETUtil.getSafePositionChunks(candidates))
+        .thenApplyAsync(chunks -> {
+          long start = System.nanoTime();
+          BlockPos safePos = IETUtil.getNearestSafePosition(pool, bands, chunks, search.nether.getWorldBorder(), search.nether.getHeight(), candidates, search.origin);
+          search.safeSearchNanos = System.nanoTime() - start;
+          IETStats.SAFE_SEARCH.record(search.safeSearchNanos);
+          return safePos;
+        }, pool),
+        this.server);
+  }
+
+  /**
+   * Takes snapshots of the given chunks, keyed by {@link ChunkPos#toLong}. Must
+   * be called on the server thread.
+   * <p>
+   * Snapshots are reused from the {@link ChunkSnapshotCache} first, and loaded
+   * chunks are copied right away. Chunks that aren't loaded are read from their
+   * region files on a worker thread, without registering them with the chunk
+   * manager, so they aren't kept in memory or saved again. Only the chunks that
+   * were never fully generated, or were saved by an older version, are loaded
+   * with tickets, which are released again as soon as they're copied.
+   */
+  private CompletableFuture<Long2ObjectMap<ChunkSnapshot>> snapshotChunks(SpawnSearch search, Collection<ChunkPos> chunks) {
+    if (search.cancelled) {
+      throw new CancellationException();
+    }
+
+    search.chunks += chunks.size();
+    IETStats.CHUNKS_TOUCHED.add(chunks.size());
+
+    ChunkSnapshotCache cache = ChunkSnapshotCache.get(search.nether);
+    Long2ObjectMap<ChunkSnapshot> snapshots = new Long2ObjectOpenHashMap<>(chunks.size());
+    List<ChunkPos> missing = new ArrayList<>();
+    for (ChunkPos chunk : chunks) {
+      ChunkSnapshot snapshot = cache.get(search.nether, chunk);
+      if (snapshot == null) {
+        Chunk loaded = search.nether.getChunkSource().getChunkNow(chunk.x, chunk.z);
+        if (loaded != null) {
+          snapshot = ChunkSnapshot.of(loaded);
+          cache.put(search.nether, chunk, snapshot);
+        }
+      }
+
+      if (snapshot != null) {
+        snapshots.put(chunk.toLong(), snapshot);
+      } else {
+        missing.add(chunk);
+      }
+    }
+    LOGGER.debug("Chunk snapshot cache for {}: {} of {} chunks missing, {} hits and {} misses so far",
+        search, missing.size(), chunks.size(), cache.getHits(), cache.getMisses());
+
+    if (missing.isEmpty()) {
+      return CompletableFuture.completedFuture(snapshots);
+    }
+
+    CompletableFuture<Long2ObjectMap<ChunkSnapshot>> read;
+    if (IETConfig.READ_CHUNKS_FROM_DISK.get()) {
+      read = CompletableFuture.supplyAsync(() -> readChunks(search.nether, missing), this.workers);
+    } else {
+      read = CompletableFuture.completedFuture(new Long2ObjectOpenHashMap<>());
+    }
+
+    return read.thenComposeAsync(readSnapshots -> {
+      List<ChunkPos> unread = new ArrayList<>();
+      for (ChunkPos chunk : missing) {
+        ChunkSnapshot snapshot = readSnapshots.get(chunk.toLong());
+        if (snapshot != null) {
+          snapshots.put(chunk.toLong(), snapshot);
+          cache.put(search.nether, chunk, snapshot);
+        } else {
+          unread.add(chunk);
+        }
+      }
+      if (!unread.isEmpty()) {
+        LOGGER.debug("Loading {} of {} chunks to search for a spawn position for {}", unread.size(), chunks.size(), search);
+      }
+
+      return this.awaitChunks(search, unread).thenApply(v -> {
+        for (ChunkPos chunk : unread) {
+          ChunkSnapshot snapshot = ChunkSnapshot.of(search.nether.getChunkSource().getChunkNow(chunk.x, chunk.z));
+          snapshots.put(chunk.toLong(), snapshot);
+          cache.put(search.nether, chunk, snapshot);
+        }
+        // The search only reads the snapshots, so the chunks can unload again
+        search.releaseTickets(unread);
+        return snapshots;
+      });
+    }, this.server);
+  }
+
+  /**
+   * Reads the given chunks from their region files. Chunks that aren't saved
+   * or can't be decoded are left out.
+   */
+  private static Long2ObjectMap<ChunkSnapshot> readChunks(ServerWorld world, List<ChunkPos> chunks) {
+    Long2ObjectMap<ChunkSnapshot> snapshots = new Long2ObjectOpenHashMap<>(chunks.size());
+    for (ChunkPos chunk : chunks) {
+      try {
+        // Goes through the chunk storage's IO worker, which also returns chunks that are still waiting to be written
+        CompoundNBT nbt = world.getChunkSource().chunkMap.read(chunk);
+        ChunkSnapshot snapshot = nbt == null ? null : ChunkSnapshot.read(nbt);
+        if (snapshot != null) {
+          snapshots.put(chunk.toLong(), snapshot);
+        }
+      } catch (IOException | RuntimeException e) {
+        LOGGER.debug("Couldn't read chunk {} from disk", chunk, e);
+      }
+    }
+    return snapshots;
+  }
+
+  /**
+   * Adds tickets for the given chunks and returns a future that completes on
+   * the server thread once all of them are loaded. Tickets for chunks that
+   * aren't loaded yet are added under the {@link IETConfig#CHUNK_LOADS_PER_TICK}
+   * budget, the rest wait for the next ticks.
+   */
+  private CompletableFuture<Void> awaitChunks(SpawnSearch search, Collection<ChunkPos> chunks) {
+    if (search.cancelled) {
+      throw new CancellationException();
+    }
+
+    ChunkWait wait = new ChunkWait(search, new ArrayList<>(chunks));
+    this.addTickets(wait);
+    if (!wait.poll()) {
+      this.chunkWaits.add(wait);
+    }
+    return wait.future;
+  }
+
+  /**
+   * Adds the wait's tickets under the budget of the players' spawns, or of the
+   * warm-ups if it's for one.
+   */
+  private void addTickets(ChunkWait wait) {
+    if (wait.search.warmUp) {
+      this.warmUpChunkLoadBudget = wait.addTickets(this.warmUpChunkLoadBudget);
+    } else {
+      this.chunkLoadBudget = wait.addTickets(this.chunkLoadBudget);
+    }
+  }
+
+  private void finish(SpawnSearch search, @Nullable BlockPos spawnPos, @Nullable Throwable throwable) {
+    this.searches.remove(search.originKey, search);
+    if (search.cancelled) {
+      return;
+    }
+
+    List<ServerPlayerEntity> players = new ArrayList<>();
+    for (PendingSpawn spawn : search.spawns) {
+      this.pending.remove(spawn.playerId, spawn);
+      this.record(search, spawn, throwable == null && spawnPos != null);
+      ServerPlayerEntity player = search.nether.getServer().getPlayerList().getPlayer(spawn.playerId);
+      if (player != null) {
+        players.add(player);
+      }
+    }
+    search.spawns.clear();
+
+    if (players.isEmpty()) {
+      search.releaseTickets();
+      return;
+    }
+
+    if (throwable != null) {
+      Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+      for (ServerPlayerEntity player : players) {
+        if (cause instanceof RejectedExecutionException) {
+          LOGGER.info("Couldn't spawn player {} in the nether, too many spawn searches are queued", player.getScoreboardName());
+        } else if (!(cause instanceof CancellationException)) {
+          LOGGER.error("Couldn't spawn player {} in the nether", player.getScoreboardName(), cause);
+        }
+      }
+    } else if (spawnPos != null) {
+      // Make sure there's a solid block under player.
+      Block blockBelow = search.nether.getBlockState(spawnPos.below()).getBlock();
+      if (blockBelow instanceof FallingBlock || blockBelow.equals(Blocks.LAVA)) {
+        search.nether.setBlock(spawnPos.below(), Blocks.NETHERRACK.defaultBlockState(), 2);
+        ChunkSnapshotCache.get(search.nether).onBlockChanged(spawnPos.getX(), spawnPos.getZ());
+      }
+      // Only remember positions that are actually safe, not the fallback position
+      if (IETConfig.SPAWN_CACHE_ENABLED.get() && IETUtil.isValidSpawnPosition(search.nether, spawnPos)) {
+        SpawnPointCache.get(search.nether).put(search.originKey, spawnPos);
+      }
+      // Teleport to safe spawn positions, players beyond the ones that were found have to share them
+      List<BlockPos> positions = IETUtil.getSpreadPositions(search.nether, spawnPos, players.size());
+      for (int i = 0; i < players.size(); i++) {
+        ServerPlayerEntity player = players.get(i);
+        BlockPos pos = positions.get(i % positions.size());
+        player.teleportTo(search.nether, pos.getX(), pos.getY(), pos.getZ(), player.getViewYRot(0.0f), player.getViewXRot(0.0f));
+      }
+    } else {
+      for (ServerPlayerEntity player : players) {
+        LOGGER.info("Couldn't spawn player {} in the nether, spawnPos is null", player.getScoreboardName());
+      }
+    }
+
+    search.releaseTickets();
+  }
+
+  private void record(SpawnSearch search, PendingSpawn spawn, boolean found) {
+    long totalNanos = System.nanoTime() - spawn.startNanos;
+    IETStats.SPAWN_RESOLUTION.record(totalNanos);
+    TickRecorder.recordSpawnResolution();
+    if (IETStats.JFR_AVAILABLE) {
+      SpawnResolutionEvent.commit(spawn.playerName, search.cached, found, totalNanos, search.biomeSearchNanos, search.safeSearchNanos, search.chunks, search.biomeSamples);
+    }
+  }
+
+  /**
+   * Drops the player's spawn. The search it was waiting for keeps going as
+   * long as another player is waiting for it too.
+   */
+  private void cancel(PendingSpawn spawn) {
+    this.pending.remove(spawn.playerId, spawn);
+    spawn.search.spawns.remove(spawn);
+    if (spawn.search.spawns.isEmpty()) {
+      this.cancel(spawn.search);
+    }
+  }
+
+  private void cancel(SpawnSearch search) {
+    search.cancelled = true;
+    this.searches.remove(search.originKey, search);
+    this.warmUps.remove(search);
+    if (search.biomeSearch != null) {
+      search.biomeSearch.cancel(false);
+    }
+    search.releaseTickets();
+  }
+
+  @SubscribeEvent
+  public void onServerTick(TickEvent.ServerTickEvent event) {
+    if (event.phase != TickEvent.Phase.END || this.server == null) {
+      return;
+    }
+
+    this.chunkLoadBudget = IETConfig.CHUNK_LOADS_PER_TICK.get();
+    Iterator<ChunkWait> waits = this.chunkWaits.iterator();
+    while (waits.hasNext()) {
+      ChunkWait wait = waits.next();
+      if (wait.search.cancelled) {
+        wait.future.cancel(false);
+        waits.remove();
+        continue;
+      }
+
+      this.addTickets(wait);
+      if (wait.poll()) {
+        waits.remove();
+      }
+    }
+
+    int timeout = IETConfig.SPAWN_SEARCH_TIMEOUT_TICKS.get();
+    for (PendingSpawn spawn : new ArrayList<>(this.pending.values())) {
+      if (this.server.getTickCount() - spawn.startTick > timeout) {
+        LOGGER.info("Couldn't spawn player {} in the nether, the spawn search timed out", spawn.playerName);
+        this.cancel(spawn);
+      }
+    }
+
+    // Searches wait in the queue until there's room, and players that request a spawn meanwhile join them
+    int budget = IETConfig.SPAWN_SEARCHES_PER_TICK.get();
+    while (budget > 0 && !this.queued.isEmpty()) {
+      SpawnSearch search = this.queued.poll();
+      if (!search.cancelled) {
+        this.start(search);
+        budget--;
+      }
+    }
+  }
+
+  @SubscribeEvent
+  public void onPlayerTick(TickEvent.PlayerTickEvent event) {
+    if (event.phase != TickEvent.Phase.END || event.side != LogicalSide.SERVER) {
+      return;
+    }
+
+    PendingSpawn spawn = this.pending.get(event.player.getUUID());
+    if (spawn != null) {
+      // Hold the player in place while their spawn is being resolved
+      ServerPlayerEntity player = (ServerPlayerEntity) event.player;
+      if (player.distanceToSqr(spawn.limboX, spawn.limboY, spawn.limboZ) > 0.25D) {
+        player.connection.teleport(spawn.limboX, spawn.limboY, spawn.limboZ, player.yRot, player.xRot);
+      }
+      player.setDeltaMovement(Vector3d.ZERO);
+      player.fallDistance = 0.0F;
+    }
+  }
+
+  @SubscribeEvent
+  public void onLivingAttack(LivingAttackEvent event) {
+    if (event.getEntityLiving() instanceof ServerPlayerEntity && this.pending.containsKey(event.getEntityLiving().getUUID())) {
+      event.setCanceled(true);
+    }
+  }
+
+  @SubscribeEvent
+  public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+    PendingSpawn spawn = this.pending.get(event.getPlayer().getUUID());
+    if (spawn != null) {
+      this.cancel(spawn);
+    }
+  }
+
+  @SubscribeEvent
+  public void onBlockBreak(BlockEvent.BreakEvent event) {
+    this.onBlockChanged(event.getWorld(), event.getPos());
+  }
+
+  @SubscribeEvent
+  public void onBlockPlace(BlockEvent.EntityPlaceEvent event) {
+    this.onBlockChanged(event.getWorld(), event.getPos());
+  }
+
+  @SubscribeEvent
+  public void onFluidPlaceBlock(BlockEvent.FluidPlaceBlockEvent event) {
+    this.onBlockChanged(event.getWorld(), event.getPos());
+  }
+
+  @SubscribeEvent
+  public void onExplosion(ExplosionEvent.Detonate event) {
+    for (BlockPos pos : event.getAffectedBlocks()) {
+      this.onBlockChanged(event.getWorld(), pos);
+    }
+  }
+
+  @SubscribeEvent
+  public void onNeighborNotify(BlockEvent.NeighborNotifyEvent event) {
+    if (event.getWorld() instanceof ServerWorld) {
+      ChunkSnapshotCache.get((ServerWorld) event.getWorld()).onBlockChanged(event.getPos().getX(), event.getPos().getZ());
+    }
+  }
+
+  private void onBlockChanged(IWorld world, BlockPos pos) {
+    if (!(world instanceof ServerWorld)) {
+      return;
+    }
+
+    ChunkSnapshotCache.get((ServerWorld) world).onBlockChanged(pos.getX(), pos.getZ());
+    if (((ServerWorld) world).dimension() == World.NETHER && IETConfig.SPAWN_CACHE_ENABLED.get()) {
+      SpawnPointCache.get((ServerWorld) world).onBlockChanged(pos);
+    }
+  }
+
+  @SubscribeEvent
+  public void onServerStarting(FMLServerStartingEvent event) {
+    int threads = IETConfig.SPAWN_SEARCH_THREADS.get();
+    this.server = event.getServer();
+    this.workers = new ThreadPoolExecutor(
+      threads,
+      threads,
+      30L,
+      TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(IETConfig.SPAWN_SEARCH_QUEUE_SIZE.get()),
+      new ThreadFactoryBuilder()
+        .setNameFormat("IET Spawn Search #%d")
+        .setDaemon(true)
+        .setUncaughtExceptionHandler((thread, throwable) -> LOGGER.error("Uncaught exception in {}", thread.getName(), throwable))
+        .build()
+    );
+    this.workers.allowCoreThreadTimeOut(true);
+    this.safeSearchPool = new ForkJoinPool(
+      IETConfig.SAFE_SEARCH_THREADS.get(),
+      pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("IET Safe Search #" + thread.getPoolIndex());
+        return thread;
+      },
+      (thread, throwable) -> LOGGER.error("Uncaught exception in {}", thread.getName(), throwable),
+      false
+    );
+  }
+
+  @SubscribeEvent
+  public void onServerStopping(FMLServerStoppingEvent event) {
+    for (PendingSpawn spawn : new ArrayList<>(this.pending.values())) {
+      this.cancel(spawn);
+    }
+    for (SpawnSearch search : new ArrayList<>(this.warmUps)) {
+      this.cancel(search);
+    }
+    this.searches.clear();
+    this.queued.clear();
+    this.warmUps.clear();
+    this.chunkWaits.clear();
+    ChunkSnapshotCache.clearAll();
+
+    if (this.workers != null) {
+      this.workers.shutdownNow();
+      this.workers = null;
+    }
+    if (this.safeSearchPool != null) {
+      this.safeSearchPool.shutdownNow();
+      this.safeSearchPool = null;
+    }
+    this.server = null;
+  }
+
+  private static final class PendingSpawn {
+    private final UUID playerId;
+    private final String playerName;
+    private final SpawnSearch search;
+    private final int startTick;
+    private final long startNanos = System.nanoTime();
+    private final double limboX;
+    private final double limboY;
+    private final double limboZ;
+
+    private PendingSpawn(ServerPlayerEntity player, SpawnSearch search) {
+      this.playerId = player.getUUID();
+      this.playerName = player.getScoreboardName();
+      this.search = search;
+      this.startTick = search.nether.getServer().getTickCount();
+      this.limboX = player.getX();
+      this.limboY = player.getY();
+      this.limboZ = player.getZ();
+    }
+  }
+
+  /**
+   * Resolves one origin, for every player waiting for it or as a warm-up.
+   */
+  private static final class SpawnSearch {
+    private final ServerWorld nether;
+    private final BlockPos origin;
+    private final long originKey;
+    private final List<Biome> biomes;
+    private final boolean warmUp;
+    private final List<PendingSpawn> spawns = new ArrayList<>();
+    private final List<ChunkPos> tickets = new ArrayList<>();
+    @Nullable
+    private CompletableFuture<BiomeSearch.Result> biomeSearch;
+    private boolean cancelled;
+
+    // Written by the search threads before they complete their stage, so the server thread sees them afterwards
+    private boolean cached;
+    private long biomeSearchNanos;
+    private long safeSearchNanos;
+    private int biomeSamples;
+    private int chunks;
+
+    private SpawnSearch(ServerWorld nether, BlockPos origin, List<Biome> biomes, boolean warmUp) {
+      this.nether = nether;
+      this.origin = origin;
+      this.originKey = SpawnPointCache.getOriginKey(origin);
+      this.biomes = biomes;
+      this.warmUp = warmUp;
+    }
+
+    @Override
+    public String toString() {
+      return (this.warmUp ? "the warm-up at " : "the spawns at ") + this.origin.getX() + ", " + this.origin.getZ();
+    }
+
+    private void releaseTickets(Collection<ChunkPos> chunks) {
+      for (ChunkPos chunk : chunks) {
+        if (this.tickets.remove(chunk)) {
+          this.nether.getChunkSource().removeRegionTicket(SPAWN_TICKET, chunk, 0, chunk);
+        }
+      }
+    }
+
+    private void releaseTickets() {
+      for (ChunkPos chunk : this.tickets) {
+        this.nether.getChunkSource().removeRegionTicket(SPAWN_TICKET, chunk, 0, chunk);
+      }
+      this.tickets.clear();
+    }
+  }
+
+  private static final class ChunkWait {
+    private final SpawnSearch search;
+    private final List<ChunkPos> chunks;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    /**
+     * Chunks before this index have tickets.
+     */
+    private int ticketed;
+
+    private ChunkWait(SpawnSearch search, List<ChunkPos> chunks) {
+      this.search = search;
+      this.chunks = chunks;
+    }
+
+    /**
+     * Adds tickets for the chunks that don't have one yet, in order. Chunks that
+     * are already loaded don't count towards the budget.
+     * @return The budget that's left
+     */
+    private int addTickets(int budget) {
+      while (this.ticketed < this.chunks.size()) {
+        ChunkPos chunk = this.chunks.get(this.ticketed);
+        boolean loaded = this.search.nether.getChunkSource().getChunkNow(chunk.x, chunk.z) != null;
+        if (!loaded && budget <= 0) {
+          break;
+        }
+
+        this.search.nether.getChunkSource().addRegionTicket(SPAWN_TICKET, chunk, 0, chunk);
+        this.search.tickets.add(chunk);
+        this.ticketed++;
+        if (!loaded) {
+          budget--;
+        }
+      }
+      return budget;
+    }
+
+    /**
+     * Completes the future if every chunk has a ticket and is loaded.
+     * @return Whether the wait is over
+     */
+    private boolean poll() {
+      if (this.ticketed < this.chunks.size()) {
+        return false;
+      }
+      for (ChunkPos chunk : this.chunks) {
+        if (this.search.nether.getChunkSource().getChunkNow(chunk.x, chunk.z) == null) {
+          return false;
+        }
+      }
+      this.future.complete(null);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.spawn;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.MOD_ID;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.storage.WorldSavedData;
+
+/**
+ * Saved in the nether, maps quantized spawn origins to safe positions that
+ * were already resolved, so repeated spawns near the same origin don't need a
+ * new search. The least recently used entries are dropped once the cache is
+ * full.
+ */
+public final class SpawnPointCache extends WorldSavedData {
+  private static final String NAME = MOD_ID + "_spawn_points";
+  /**
+   * How close a block change has to be to a cached position to invalidate it.
+   */
+  private static final int INVALIDATION_RADIUS = 2;
+
+  private final LinkedHashMap<Long, Long> positions = new LinkedHashMap<>(16, 0.75F, true);
+  /**
+   * Cached positions by the chunk they're in, so block changes only have to
+   * look at the entries near them.
+   */
+  private final Long2ObjectMap<Long2LongMap> originsByChunk = new Long2ObjectOpenHashMap<>();
+
+  public SpawnPointCache() {
+    super(NAME);
+  }
+
+  public static SpawnPointCache get(ServerWorld nether) {
+    return nether.getDataStorage().computeIfAbsent(SpawnPointCache::new, NAME);
+  }
+
+  /**
+   * Quantizes a nether-scaled origin to the cell it's cached under.
+   */
+  public static long getOriginKey(BlockPos origin) {
+    int cellSize = IETConfig.SPAWN_CACHE_CELL_SIZE.get();
+    return ChunkPos.asLong(Math.floorDiv(origin.getX(), cellSize), Math.floorDiv(origin.getZ(), cellSize));
+  }
+
+  @Nullable
+  public BlockPos get(long originKey) {
+    Long pos = this.positions.get(originKey);
+    return pos == null ? null : BlockPos.of(pos);
+  }
+
+  public void put(long originKey, BlockPos pos) {
+    this.remove(originKey);
+    this.positions.put(originKey, pos.asLong());
+    this.index(originKey, pos);
+
+    int maxEntries = IETConfig.SPAWN_CACHE_MAX_ENTRIES.get();
+    Iterator<Map.Entry<Long, Long>> eldest = this.positions.entrySet().iterator();
+    while (this.positions.size() > maxEntries && eldest.hasNext()) {
+      Map.Entry<Long, Long> entry = eldest.next();
+      eldest.remove();
+      this.unindex(entry.getKey(), BlockPos.of(entry.getValue()));
+    }
+
+    this.setDirty();
+  }
+
+  public void remove(long originKey) {
+    Long pos = this.positions.remove(originKey);
+    if (pos != null) {
+      this.unindex(originKey, BlockPos.of(pos));
+      this.setDirty();
+    }
+  }
+
+  /**
+   * Drops every cached position close enough to a changed block for the change
+   * to affect whether the position is still safe.
+   */
+  public void onBlockChanged(BlockPos changed) {
+    if (this.positions.isEmpty()) {
+      return;
+    }
+
+    int minX = (changed.getX() - INVALIDATION_RADIUS) >> 4;
+    int maxX = (changed.getX() + INVALIDATION_RADIUS) >> 4;
+    int minZ = (changed.getZ() - INVALIDATION_RADIUS) >> 4;
+    int maxZ = (changed.getZ() + INVALIDATION_RADIUS) >> 4;
+    for (int x = minX; x <= maxX; x++) {
+      for (int z = minZ; z <= maxZ; z++) {
+        Long2LongMap origins = this.originsByChunk.get(ChunkPos.asLong(x, z));
+        if (origins == null) {
+          continue;
+        }
+
+        for (Long2LongMap.Entry entry : new Long2LongOpenHashMap(origins).long2LongEntrySet()) {
+          long originKey = entry.getLongKey();
+          BlockPos pos = BlockPos.of(entry.getLongValue());
+          if (
+            Math.abs(pos.getX() - changed.getX()) <= INVALIDATION_RADIUS &&
+            Math.abs(pos.getY() - changed.getY()) <= INVALIDATION_RADIUS &&
+            Math.abs(pos.getZ() - changed.getZ()) <= INVALIDATION_RADIUS
+          ) {
+            this.remove(originKey);
+          }
+        }
+      }
+    }
+  }
+
+  private void index(long originKey, BlockPos pos) {
+    long chunkKey = ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4);
+    Long2LongMap origins = this.originsByChunk.get(chunkKey);
+    if (origins == null) {
+      origins = new Long2LongOpenHashMap();
+      this.originsByChunk.put(chunkKey, origins);
+    }
+    origins.put(originKey, pos.asLong());
+  }
+
+  private void unindex(long originKey, BlockPos pos) {
+    long chunkKey = ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4);
+    Long2LongMap origins = this.originsByChunk.get(chunkKey);
+    if (origins != null) {
+      origins.remove(originKey);
+      if (origins.isEmpty()) {
+        this.originsByChunk.remove(chunkKey);
+      }
+    }
+  }
+
+  @Override
+  public void load(CompoundNBT nbt) {
+    this.positions.clear();
+    this.originsByChunk.clear();
+
+    long[] origins = nbt.getLongArray("Origins");
+    long[] positions = nbt.getLongArray("Positions");
+    for (int i = 0; i < Math.min(origins.length, positions.length); i++) {
+      this.positions.put(origins[i], positions[i]);
+      this.index(origins[i], BlockPos.of(positions[i]));
+    }
+  }
+
+  @Override
+  public CompoundNBT save(CompoundNBT nbt) {
+    // Saved in least to most recently used order, so it's kept when loaded again
+    long[] origins = new long[this.positions.size()];
+    long[] positions = new long[this.positions.size()];
+    int i = 0;
+    for (Map.Entry<Long, Long> entry : this.positions.entrySet()) {
+      origins[i] = entry.getKey();
+      positions[i] = entry.getValue();
+      i++;
+    }
+
+    nbt.putLongArray("Origins", origins);
+    nbt.putLongArray("Positions", positions);
+    return nbt;
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.spawn;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
+
+/**
+ * Resolves the nether spawn positions around the world spawn in the background
+ * once the server has started, so the first players after a restart find them
+ * in the {@link SpawnPointCache} instead of waiting for chunks to generate.
+ * <p>
+ * Every cache cell within {@link IETConfig#WARMUP_RADIUS_CELLS} of the
+ * nether-scaled world spawn is resolved, nearest first and one at a time, with
+ * the chunks loaded under {@link IETConfig#WARMUP_CHUNK_LOADS_PER_TICK}. The
+ * warm-up pauses while the average MSPT is above
+ * {@link IETConfig#WARMUP_MAX_MSPT}.
+ */
+public final class SpawnWarmup {
+  private final NetherSpawnResolver spawnResolver;
+  private final Deque<BlockPos> origins = new ArrayDeque<>();
+  private List<Biome> biomes = new ArrayList<>();
+  @Nullable
+  private ServerWorld nether;
+  @Nullable
+  private CompletableFuture<BlockPos> current;
+  private boolean paused;
+  private int total;
+  private int done;
+  private int cached;
+  private long startMillis;
+
+  public SpawnWarmup(NetherSpawnResolver spawnResolver) {
+    this.spawnResolver = spawnResolver;
+  }
+
+  @SubscribeEvent
+  public void onServerStarted(FMLServerStartedEvent event) {
+    if (!IETConfig.WARMUP_ENABLED.get()) {
+      return;
+    }
+    if (!IETConfig.SPAWN_CACHE_ENABLED.get()) {
+      LOGGER.info("Not warming up nether spawn positions, the spawn cache is disabled");
+      return;
+    }
+
+    MinecraftServer server = event.getServer();
+    ServerWorld overworld = server.getLevel(World.OVERWORLD);
+    ServerWorld nether = server.getLevel(World.NETHER);
+    if (overworld == null || nether == null || !server.isNetherEnabled()) {
+      return;
+    }
+
+    BlockPos spawn = overworld.getSharedSpawnPos();
+    BlockPos origin = NetherSpawnResolver.getOrigin(overworld, nether, spawn.getX() + 0.5D, spawn.getY(), spawn.getZ() + 0.5D);
+    SpawnPointCache cache = SpawnPointCache.get(nether);
+    int cellSize = IETConfig.SPAWN_CACHE_CELL_SIZE.get();
+    int radius = IETConfig.WARMUP_RADIUS_CELLS.get();
+    int originX = Math.floorDiv(origin.getX(), cellSize);
+    int originZ = Math.floorDiv(origin.getZ(), cellSize);
+
+    List<BlockPos> origins = new ArrayList<>();
+    for (int x = -radius; x <= radius; x++) {
+      for (int z = -radius; z <= radius; z++) {
+        // The center of the cell, every origin in it shares the cached position
+        BlockPos cell = new BlockPos((originX + x) * cellSize + cellSize / 2, origin.getY(), (originZ + z) * cellSize + cellSize / 2);
+        if (cache.get(SpawnPointCache.getOriginKey(cell)) == null) {
+          origins.add(cell);
+        }
+      }
+    }
+    if (origins.isEmpty()) {
+      LOGGER.info("Not warming up nether spawn positions, they're all cached already");
+      return;
+    }
+    origins.sort(Comparator.comparingDouble(cell -> cell.distSqr(origin)));
+
+    this.origins.clear();
+    this.origins.addAll(origins);
+    this.biomes = NetherSpawnResolver.getSpawnableBiomes();
+    this.nether = nether;
+    this.paused = false;
+    this.total = origins.size();
+    this.done = 0;
+    this.cached = 0;
+    this.startMillis = System.currentTimeMillis();
+    LOGGER.info("Warming up {} nether spawn positions around {}", this.total, origin);
+  }
+
+  @SubscribeEvent
+  public void onServerTick(TickEvent.ServerTickEvent event) {
+    if (event.phase != TickEvent.Phase.END || this.nether == null) {
+      return;
+    }
+
+    MinecraftServer server = this.nether.getServer();
+    long totalNanos = 0L;
+    for (long tickTime : server.tickTimes) {
+      totalNanos += tickTime;
+    }
+    double mspt = totalNanos / (double) server.tickTimes.length / 1_000_000.0D;
+    if (mspt > IETConfig.WARMUP_MAX_MSPT.get()) {
+      // Searches that are already running finish, but can't load any more chunks for now
+      this.spawnResolver.setWarmUpChunkLoadBudget(0);
+      if (!this.paused) {
+        LOGGER.info("Pausing the nether spawn warm-up at {} MSPT", String.format(Locale.ROOT, "%.1f", mspt));
+        this.paused = true;
+      }
+      return;
+    }
+    if (this.paused) {
+      LOGGER.info("Resuming the nether spawn warm-up at {} MSPT", String.format(Locale.ROOT, "%.1f", mspt));
+      this.paused = false;
+    }
+
+    this.spawnResolver.setWarmUpChunkLoadBudget(IETConfig.WARMUP_CHUNK_LOADS_PER_TICK.get());
+    if (this.current == null && !this.origins.isEmpty()) {
+      CompletableFuture<BlockPos> current = this.spawnResolver.warmUp(this.nether, this.origins.poll(), this.biomes);
+      this.current = current;
+      // Completes on the server thread
+      current.whenComplete((spawnPos, throwable) -> this.onResolved(current, spawnPos, throwable));
+    }
+  }
+
+  private void onResolved(CompletableFuture<BlockPos> future, @Nullable BlockPos spawnPos, @Nullable Throwable throwable) {
+    if (future != this.current) {
+      return;
+    }
+    this.current = null;
+
+    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    if (cause instanceof CancellationException) {
+      return;
+    }
+    if (cause != null) {
+      LOGGER.warn("Couldn't warm up a nether spawn position", cause);
+    }
+
+    this.done++;
+    if (spawnPos != null) {
+      this.cached++;
+    }
+    if (this.origins.isEmpty()) {
+      LOGGER.info("Warmed up {} of {} nether spawn positions in {} s", this.cached, this.total,
+          String.format(Locale.ROOT, "%.1f", (System.currentTimeMillis() - this.startMillis) / 1000.0D));
+      this.stop();
+    } else if (this.done % Math.max(1, this.total / 10) == 0) {
+      LOGGER.info("Nether spawn warm-up: {} of {} origins done, {} positions cached", this.done, this.total, this.cached);
+    }
+  }
+
+  @SubscribeEvent
+  public void onServerStopping(FMLServerStoppingEvent event) {
+    this.stop();
+  }
+
+  private void stop() {
+    this.origins.clear();
+    this.current = null;
+    this.nether = null;
+    this.spawnResolver.setWarmUpChunkLoadBudget(0);
+  }
+}
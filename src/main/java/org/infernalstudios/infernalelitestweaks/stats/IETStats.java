@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.stats;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.minecraft.entity.EntityClassification;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.world.World;
+
+/**
+ * Counters and latency histograms for the spawn search, the spawn caps and
+ * the elite work, shown by {@code /iet stats}. Each spawn resolution is also
+ * reported as a {@link SpawnResolutionEvent} when Flight Recorder is
+ * available.
+ */
+public final class IETStats {
+  private IETStats() {} // Uninstantiable
+
+  private static final EntityClassification[] CLASSIFICATIONS = EntityClassification.values();
+
+  /**
+   * Whether this JVM has the Flight Recorder API, which older Java 8 builds
+   * don't. {@link SpawnResolutionEvent} must not be touched without it.
+   */
+  public static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+  public static final LatencyHistogram SPAWN_RESOLUTION = new LatencyHistogram();
+  public static final LatencyHistogram BIOME_SEARCH = new LatencyHistogram();
+  public static final LatencyHistogram SAFE_SEARCH = new LatencyHistogram();
+  public static final LatencyHistogram ELITE_JOIN = new LatencyHistogram();
+
+  public static final LongAdder CHUNKS_TOUCHED = new LongAdder();
+  public static final LongAdder BLOCKS_PROBED = new LongAdder();
+  public static final LongAdder BIOME_SAMPLES = new LongAdder();
+  /**
+   * Spawn requests that joined a search another player had already started.
+   */
+  public static final LongAdder SPAWN_REQUESTS_JOINED = new LongAdder();
+
+  /**
+   * Allowed and denied spawn cap checks per dimension, by classification
+   * ordinal times two, plus one for denied ones. Only used on the server
+   * thread.
+   */
+  private static final Map<RegistryKey<World>, long[]> SPAWN_DECISIONS = new HashMap<>();
+
+  public static void recordSpawnDecision(RegistryKey<World> dimension, EntityClassification classification, boolean allowed) {
+    long[] decisions = SPAWN_DECISIONS.get(dimension);
+    if (decisions == null) {
+      decisions = new long[CLASSIFICATIONS.length * 2];
+      SPAWN_DECISIONS.put(dimension, decisions);
+    }
+    decisions[classification.ordinal() * 2 + (allowed ? 0 : 1)]++;
+  }
+
+  public static Map<RegistryKey<World>, long[]> getSpawnDecisions() {
+    return Collections.unmodifiableMap(SPAWN_DECISIONS);
+  }
+
+  public static void reset() {
+    SPAWN_RESOLUTION.reset();
+    BIOME_SEARCH.reset();
+    SAFE_SEARCH.reset();
+    ELITE_JOIN.reset();
+    CHUNKS_TOUCHED.reset();
+    BLOCKS_PROBED.reset();
+    BIOME_SAMPLES.reset();
+    SPAWN_REQUESTS_JOINED.reset();
+    SPAWN_DECISIONS.clear();
+  }
+
+  private static boolean isJfrAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, IETStats.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
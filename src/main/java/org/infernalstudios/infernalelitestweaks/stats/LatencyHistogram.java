@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with four buckets per power of two, so
+ * percentiles are accurate to within 25%. Recording is lock free and can be
+ * done from any thread.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    nanos = Math.max(0L, nanos);
+    this.buckets.incrementAndGet(getBucket(nanos));
+    this.count.increment();
+    this.total.add(nanos);
+    long current;
+    do {
+      current = this.max.get();
+    } while (nanos > current && !this.max.compareAndSet(current, nanos));
+  }
+
+  public long getCount() {
+    return this.count.sum();
+  }
+
+  public double getMeanMillis() {
+    long count = this.count.sum();
+    return count == 0 ? 0.0D : this.total.sum() / (double) count / 1_000_000.0D;
+  }
+
+  public double getMaxMillis() {
+    return this.max.get() / 1_000_000.0D;
+  }
+
+  /**
+   * @param percentile Between 0 and 100
+   * @return The upper bound of the bucket holding the percentile, in
+   *         milliseconds
+   */
+  public double getPercentileMillis(double percentile) {
+    long count = this.count.sum();
+    if (count == 0) {
+      return 0.0D;
+    }
+
+    long rank = Math.max(1L, (long) Math.ceil(count * percentile / 100.0D));
+    long seen = 0L;
+    for (int bucket = 0; bucket < this.buckets.length(); bucket++) {
+      seen += this.buckets.get(bucket);
+      if (seen >= rank) {
+        // Never above the largest duration that was actually recorded
+        return Math.min(getUpperBound(bucket), this.max.get()) / 1_000_000.0D;
+      }
+    }
+    return this.getMaxMillis();
+  }
+
+  public void reset() {
+    for (int bucket = 0; bucket < this.buckets.length(); bucket++) {
+      this.buckets.set(bucket, 0L);
+    }
+    this.count.reset();
+    this.total.reset();
+    this.max.set(0L);
+  }
+
+  private static int getBucket(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int log = 63 - Long.numberOfLeadingZeros(nanos);
+    int sub = (int) (nanos >>> (log - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return Math.min((log - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub, 64 * SUB_BUCKETS - 1);
+  }
+
+  private static long getUpperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int log = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    long bound = (SUB_BUCKETS + sub + 1) << (log - SUB_BUCKET_BITS);
+    return bound - 1 < 0 ? Long.MAX_VALUE : bound - 1;
+  }
+}
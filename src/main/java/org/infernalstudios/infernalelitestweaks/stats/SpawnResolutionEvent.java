@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.stats;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.MOD_ID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a finished nether spawn resolution. Only load this
+ * class if {@link IETStats#JFR_AVAILABLE}. Compiling it needs a JDK of 8u262
+ * or later, which build.gradle checks for.
+ */
+@Name(MOD_ID + ".SpawnResolution")
+@Label("Nether Spawn Resolution")
+@Description("A player's nether spawn position was resolved")
+@Category({ "Infernal Elites Tweaks", "Spawning" })
+@StackTrace(false)
+public final class SpawnResolutionEvent extends Event {
+  @Label("Player")
+  public String player;
+
+  @Label("Cached")
+  @Description("Whether a cached position was reused")
+  public boolean cached;
+
+  @Label("Found")
+  @Description("Whether a position was found")
+  public boolean found;
+
+  @Label("Total Time")
+  @Timespan(Timespan.NANOSECONDS)
+  public long totalTime;
+
+  @Label("Biome Search Time")
+  @Timespan(Timespan.NANOSECONDS)
+  public long biomeSearchTime;
+
+  @Label("Safe Search Time")
+  @Timespan(Timespan.NANOSECONDS)
+  public long safeSearchTime;
+
+  @Label("Chunks Touched")
+  public int chunks;
+
+  @Label("Biome Samples")
+  public int biomeSamples;
+
+  /**
+   * Commits an event with the given values, if the event is enabled.
+   */
+  public static void commit(String player, boolean cached, boolean found, long totalTime, long biomeSearchTime, long safeSearchTime, int chunks, int biomeSamples) {
+    SpawnResolutionEvent event = new SpawnResolutionEvent();
+    if (!event.isEnabled()) {
+      return;
+    }
+    event.player = player;
+    event.cached = cached;
+    event.found = found;
+    event.totalTime = totalTime;
+    event.biomeSearchTime = biomeSearchTime;
+    event.safeSearchTime = safeSearchTime;
+    event.chunks = chunks;
+    event.biomeSamples = biomeSamples;
+    event.commit();
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.stats;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.MOD_ID;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+/**
+ * Records a row per server tick, with the tick's duration, the monsters the
+ * spawner counted, the elites that joined and the nether spawns that were
+ * requested and resolved. Rows go into a preallocated ring buffer, which the
+ * server thread writes to without locking or allocating, and a background
+ * thread appends them to CSV files in {@code logs/infernalelitestweaks}. Files
+ * are rotated at {@link IETConfig#RECORDER_MAX_FILE_MEGABYTES} and only the
+ * newest {@link IETConfig#RECORDER_MAX_FILES} are kept. When the writer falls
+ * behind, rows are dropped instead of waiting for it. Registered as a class,
+ * its handlers are static.
+ */
+public final class TickRecorder {
+  private TickRecorder() {} // Uninstantiable
+
+  private static final String HEADER = "tick,time,tickMillis,monsters,eliteJoins,spawnRequests,spawnResolutions";
+  private static final int FIELDS = 7;
+
+  /**
+   * The session being recorded, or null.
+   */
+  @Nullable
+  private static volatile Session session;
+
+  // Only touched by the server thread
+  private static long tickStart;
+  private static int monsters;
+  private static int eliteJoins;
+  private static int spawnRequests;
+  private static int spawnResolutions;
+
+  public static boolean isRecording() {
+    return session != null;
+  }
+
+  public static void recordMonsters(int count) {
+    monsters += count;
+  }
+
+  public static void recordEliteJoin() {
+    eliteJoins++;
+  }
+
+  public static void recordSpawnRequest() {
+    spawnRequests++;
+  }
+
+  public static void recordSpawnResolution() {
+    spawnResolutions++;
+  }
+
+  /**
+   * @return How many rows of the current session were dropped because the
+   *         writer fell behind
+   */
+  public static long getDropped() {
+    Session current = session;
+    return current == null ? 0L : current.dropped.get();
+  }
+
+  @SubscribeEvent
+  public static void onServerTick(TickEvent.ServerTickEvent event) {
+    Session current = session;
+    if (current == null) {
+      return;
+    }
+
+    if (event.phase == TickEvent.Phase.START) {
+      tickStart = System.nanoTime();
+      return;
+    }
+
+    long head = current.head.get();
+    if (head - current.tail.get() >= current.capacity) {
+      current.dropped.incrementAndGet();
+    } else {
+      long[] buffer = current.rows;
+      int offset = (int) (head % current.capacity) * FIELDS;
+      buffer[offset] = head;
+      buffer[offset + 1] = System.currentTimeMillis();
+      buffer[offset + 2] = System.nanoTime() - tickStart;
+      buffer[offset + 3] = monsters;
+      buffer[offset + 4] = eliteJoins;
+      buffer[offset + 5] = spawnRequests;
+      buffer[offset + 6] = spawnResolutions;
+      // Ordered after the row's writes, so the writer never reads a row before it's complete
+      current.head.lazySet(head + 1);
+    }
+
+    monsters = 0;
+    eliteJoins = 0;
+    spawnRequests = 0;
+    spawnResolutions = 0;
+  }
+
+  @SubscribeEvent
+  public static void onServerStarted(FMLServerStartedEvent event) {
+    if (!IETConfig.RECORDER_ENABLED.get()) {
+      return;
+    }
+
+    // Counted while nothing was recorded
+    monsters = 0;
+    eliteJoins = 0;
+    spawnRequests = 0;
+    spawnResolutions = 0;
+    Session next = new Session(IETConfig.RECORDER_BUFFER_SIZE.get());
+    Path directory = FMLPaths.GAMEDIR.get().resolve("logs").resolve(MOD_ID);
+
+    Thread thread = new Thread(() -> write(next, directory), "IET Tick Recorder");
+    thread.setDaemon(true);
+    thread.setUncaughtExceptionHandler((t, throwable) -> LOGGER.error("Uncaught exception in {}", t.getName(), throwable));
+    next.writer = thread;
+    session = next;
+    thread.start();
+    LOGGER.info("Recording tick stats to {}", directory);
+  }
+
+  @SubscribeEvent
+  public static void onServerStopping(FMLServerStoppingEvent event) {
+    Session current = session;
+    if (current == null) {
+      return;
+    }
+
+    session = null;
+    current.stopping = true;
+    LockSupport.unpark(current.writer);
+    try {
+      // The writer drains what's left before it stops
+      current.writer.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (current.writer.isAlive()) {
+      LOGGER.warn("The tick recorder is still writing, the rest of its rows are written in the background");
+    }
+    if (current.dropped.get() > 0) {
+      LOGGER.warn("The tick recorder dropped {} rows, the writer couldn't keep up", current.dropped.get());
+    }
+  }
+
+  private static void write(Session session, Path directory) {
+    long maxBytes = IETConfig.RECORDER_MAX_FILE_MEGABYTES.get() * 1024L * 1024L;
+    long flushNanos = TimeUnit.MILLISECONDS.toNanos(IETConfig.RECORDER_FLUSH_INTERVAL_MILLIS.get());
+    long[] buffer = session.rows;
+    BufferedWriter out = null;
+    long written = 0L;
+    try {
+      Files.createDirectories(directory);
+      while (true) {
+        boolean last = session.stopping;
+        long tail = session.tail.get();
+        long head = session.head.get();
+        for (; tail < head; tail++) {
+          if (out == null || written >= maxBytes) {
+            if (out != null) {
+              out.close();
+            }
+            out = openFile(directory);
+            written = HEADER.length() + 1;
+          }
+
+          int offset = (int) (tail % session.capacity) * FIELDS;
+          String row = String.format(Locale.ROOT, "%d,%d,%.3f,%d,%d,%d,%d", buffer[offset], buffer[offset + 1], buffer[offset + 2] / 1_000_000.0D,
+              buffer[offset + 3], buffer[offset + 4], buffer[offset + 5], buffer[offset + 6]);
+          out.write(row);
+          out.newLine();
+          written += row.length() + 1;
+          // Frees the slot for the server thread
+          session.tail.lazySet(tail + 1);
+        }
+        if (out != null) {
+          out.flush();
+        }
+
+        if (last) {
+          break;
+        }
+        LockSupport.parkNanos(flushNanos);
+      }
+    } catch (IOException e) {
+      LOGGER.error("Couldn't write tick stats to {}, stopped recording", directory, e);
+      // Only stops recording if no newer session has started since
+      if (TickRecorder.session == session) {
+        TickRecorder.session = null;
+      }
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          LOGGER.debug("Couldn't close the tick stats file", e);
+        }
+      }
+    }
+  }
+
+  private static BufferedWriter openFile(Path directory) throws IOException {
+    deleteOldFiles(directory, IETConfig.RECORDER_MAX_FILES.get() - 1);
+    String name = "ticks-" + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss.SSS", Locale.ROOT).format(new Date()) + ".csv";
+    BufferedWriter out = Files.newBufferedWriter(directory.resolve(name), StandardCharsets.UTF_8);
+    out.write(HEADER);
+    out.newLine();
+    return out;
+  }
+
+  /**
+   * Deletes the oldest files until only {@code keep} are left. The names start
+   * with the time they were created, so they sort oldest first.
+   */
+  private static void deleteOldFiles(Path directory, int keep) throws IOException {
+    List<Path> files;
+    try (Stream<Path> list = Files.list(directory)) {
+      files = list.filter(path -> path.getFileName().toString().startsWith("ticks-")).collect(Collectors.toCollection(ArrayList::new));
+    }
+    Collections.sort(files);
+    for (int i = 0; i < files.size() - keep; i++) {
+      Files.deleteIfExists(files.get(i));
+    }
+  }
+
+  /**
+   * The buffer and counters of one recording, from the server starting to it
+   * stopping. The writer thread keeps its own session, so one that's still
+   * draining never shares state with the next.
+   */
+  private static final class Session {
+    /**
+     * Rows laid out one after another, {@link #FIELDS} longs each.
+     */
+    private final long[] rows;
+    private final int capacity;
+    /**
+     * Rows published by the server thread, and rows taken by the writer. Only
+     * the owning thread writes each of them.
+     */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean stopping;
+    private Thread writer;
+
+    private Session(int capacity) {
+      this.capacity = capacity;
+      this.rows = new long[capacity * FIELDS];
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeManager;
+
+/**
+ * Nearest biome searches that only query the biome source, so they never load
+ * or generate chunks and are safe to run off the server thread. Any
+ * {@link BiomeManager.IBiomeReader} can be searched, like a world's
+ * {@link net.minecraft.world.biome.provider.BiomeProvider}.
+ */
+public final class BiomeSearch {
+  private BiomeSearch() {} // Uninstantiable
+
+  /**
+   * Searches for all of the given biomes at once, walking square rings of noise
+   * biome samples outward from {@code nearpos}.
+   * <p>
+   * The biome source is first sampled every {@code stride} quarts. Only the
+   * cells where one of the biomes showed up are then sampled quart by quart, so
+   * a larger stride takes fewer samples but can miss biome patches smaller than
+   * a cell. With a stride of 1 every quart is sampled. The search stops once a
+   * ring is further away than the nearest match found so far, since nothing
+   * past it can be closer.
+   */
+  public static Result findNearest(BiomeManager.IBiomeReader biomeSource, List<Biome> biomes, BlockPos nearpos, int radius, int stride) {
+    Search search = new Search(biomeSource, biomes, nearpos);
+    int halfStride = stride / 2;
+    int rings = ((radius >> 2) + stride - 1) / stride;
+
+    for (int ring = 0; ring <= rings; ring++) {
+      // Every sample in this ring's cells is at least this many quarts away
+      long ringDist = Math.max(0, ring * stride - halfStride);
+      if (ringDist * ringDist > search.bestDist) {
+        break;
+      }
+
+      for (int cz = -ring; cz <= ring; cz++) {
+        boolean edge = Math.abs(cz) == ring;
+        // Only the outline of the square is part of this ring
+        int step = edge ? 1 : 2 * ring;
+        for (int cx = -ring; cx <= ring; cx += step) {
+          int centerX = cx * stride;
+          int centerZ = cz * stride;
+          if (search.sample(centerX, centerZ) && stride > 1) {
+            search.refine(centerX - halfStride, centerZ - halfStride, stride);
+          }
+        }
+      }
+    }
+
+    return search.toResult();
+  }
+
+  public static final class Result {
+    private final List<BlockPos> positions;
+    private final int samples;
+
+    private Result(List<BlockPos> positions, int samples) {
+      this.positions = positions;
+      this.samples = samples;
+    }
+
+    /**
+     * @return The nearest sample found for each biome, nearest first
+     */
+    public List<BlockPos> getPositions() {
+      return this.positions;
+    }
+
+    /**
+     * @return How many times the biome source was sampled
+     */
+    public int getSamples() {
+      return this.samples;
+    }
+  }
+
+  private static final class Search {
+    private final BiomeManager.IBiomeReader biomeSource;
+    private final List<Biome> biomes;
+    private final BlockPos nearpos;
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final long[] nearestDist;
+    private final int[] nearestX;
+    private final int[] nearestZ;
+    private long bestDist = Long.MAX_VALUE;
+    private int samples;
+
+    private Search(BiomeManager.IBiomeReader biomeSource, List<Biome> biomes, BlockPos nearpos) {
+      this.biomeSource = biomeSource;
+      this.biomes = biomes;
+      this.nearpos = nearpos;
+      this.originX = nearpos.getX() >> 2;
+      this.originY = nearpos.getY() >> 2;
+      this.originZ = nearpos.getZ() >> 2;
+      this.nearestDist = new long[biomes.size()];
+      this.nearestX = new int[biomes.size()];
+      this.nearestZ = new int[biomes.size()];
+      Arrays.fill(this.nearestDist, Long.MAX_VALUE);
+    }
+
+    /**
+     * Samples the biome at an offset in quarts from the origin.
+     * @return Whether it's one of the searched biomes
+     */
+    private boolean sample(int dx, int dz) {
+      this.samples++;
+      int index = this.biomes.indexOf(this.biomeSource.getNoiseBiome(this.originX + dx, this.originY, this.originZ + dz));
+      if (index < 0) {
+        return false;
+      }
+
+      long dist = (long) dx * dx + (long) dz * dz;
+      if (dist < this.nearestDist[index]) {
+        this.nearestDist[index] = dist;
+        this.nearestX[index] = this.originX + dx;
+        this.nearestZ[index] = this.originZ + dz;
+      }
+      this.bestDist = Math.min(this.bestDist, dist);
+      return true;
+    }
+
+    /**
+     * Samples every quart of a cell that can still hold a closer match.
+     */
+    private void refine(int minX, int minZ, int size) {
+      for (int dz = minZ; dz < minZ + size; dz++) {
+        for (int dx = minX; dx < minX + size; dx++) {
+          if ((long) dx * dx + (long) dz * dz < this.bestDist) {
+            this.sample(dx, dz);
+          }
+        }
+      }
+    }
+
+    private Result toResult() {
+      List<BlockPos> positions = new ArrayList<>(this.biomes.size());
+      List<Long> distances = new ArrayList<>(this.biomes.size());
+      for (int i = 0; i < this.biomes.size(); i++) {
+        if (this.nearestDist[i] == Long.MAX_VALUE) {
+          continue;
+        }
+
+        int insertAt = 0;
+        while (insertAt < distances.size() && distances.get(insertAt) <= this.nearestDist[i]) {
+          insertAt++;
+        }
+        positions.add(insertAt, new BlockPos(this.nearestX[i] << 2, this.nearpos.getY(), this.nearestZ[i] << 2));
+        distances.add(insertAt, this.nearestDist[i]);
+      }
+      return new Result(positions, this.samples);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.util;
+
+/**
+ * The blocks of an area, as far as the safe position search needs them:
+ * whether each block is air, solid or neither, and the height of each column.
+ * Implemented by {@link SectionBlockReader} for real worlds, and can be
+ * implemented over made up terrain to run the search without a server.
+ */
+public interface BlockAccess {
+  /**
+   * Same as {@link net.minecraft.world.server.ServerWorld#getHeight(net.minecraft.world.gen.Heightmap.Type, int, int)}
+   * with {@link net.minecraft.world.gen.Heightmap.Type#MOTION_BLOCKING}.
+   */
+  int getHeight(int x, int z);
+
+  /**
+   * @return {@link SectionBlockReader#AIR}, {@link SectionBlockReader#SOLID} or
+   *         {@link SectionBlockReader#OTHER}
+   */
+  byte getBlockKind(int x, int y, int z);
+
+  /**
+   * @return The kind of every block in the section holding {@code y}, or -1 if
+   *         the section has blocks of different kinds or that isn't known
+   */
+  int getSectionKind(int x, int y, int z);
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import static org.infernalstudios.infernalelitestweaks.util.SectionBlockReader.AIR;
+import static org.infernalstudios.infernalelitestweaks.util.SectionBlockReader.OTHER;
+import static org.infernalstudios.infernalelitestweaks.util.SectionBlockReader.SOLID;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.mixin.common.PalettedContainerAccess;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.block.BlockState;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.BitArray;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.palette.IPalette;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.gen.Heightmap;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * An immutable copy of the parts of a chunk the safe position search reads:
+ * the kind of every block, as told apart by {@link SectionBlockReader}, and
+ * the {@link Heightmap.Type#MOTION_BLOCKING} heightmap. Snapshots don't
+ * reference the chunk they were taken from, so they can be read from any
+ * thread.
+ */
+public final class ChunkSnapshot {
+  private static final int SECTIONS = 16;
+  private static final byte MIXED = 3;
+  /**
+   * Two bits per block, a section's 4096 blocks fit in this many longs.
+   */
+  private static final int SECTION_LONGS = 4096 * 2 / 64;
+
+  private final byte[] sectionKinds;
+  private final long[][] sectionBlocks;
+  private final short[] heights;
+
+  private ChunkSnapshot(byte[] sectionKinds, long[][] sectionBlocks, short[] heights) {
+    this.sectionKinds = sectionKinds;
+    this.sectionBlocks = sectionBlocks;
+    this.heights = heights;
+  }
+
+  /**
+   * Copies a loaded chunk. Must be called on the server thread.
+   */
+  public static ChunkSnapshot of(Chunk chunk) {
+    byte[] sectionKinds = new byte[SECTIONS];
+    long[][] sectionBlocks = new long[SECTIONS][];
+    ChunkSection[] sections = chunk.getSections();
+    for (int i = 0; i < SECTIONS; i++) {
+      ChunkSection section = sections[i];
+      if (ChunkSection.isEmpty(section)) {
+        sectionKinds[i] = AIR;
+        continue;
+      }
+
+      // The palette can hold states that aren't used anymore, which only makes this more conservative
+      boolean hasAir = section.getStates().maybeHas(state -> getKind(state) == AIR);
+      boolean hasSolid = section.getStates().maybeHas(state -> getKind(state) == SOLID);
+      boolean hasOther = section.getStates().maybeHas(state -> getKind(state) == OTHER);
+      byte kind = getUniformKind(hasAir, hasSolid, hasOther);
+      sectionKinds[i] = kind;
+      if (kind == MIXED) {
+        @SuppressWarnings("unchecked")
+        PalettedContainerAccess<BlockState> states = (PalettedContainerAccess<BlockState>) section.getStates();
+        sectionBlocks[i] = pack(states.getStorage(), states.getPalette());
+      }
+    }
+
+    short[] heights = new short[256];
+    for (int z = 0; z < 16; z++) {
+      for (int x = 0; x < 16; x++) {
+        // Same as the world's height, which is one above the chunk's
+        heights[x + z * 16] = (short) (chunk.getHeight(Heightmap.Type.MOTION_BLOCKING, x, z) + 1);
+      }
+    }
+    return new ChunkSnapshot(sectionKinds, sectionBlocks, heights);
+  }
+
+  /**
+   * Decodes a chunk as it's saved in a region file, without registering it
+   * with the chunk manager. Only fully generated chunks saved by this version
+   * can be decoded, anything else would have to be upgraded or generated
+   * first.
+   * @return The snapshot, or null if the chunk can't be decoded
+   */
+  @Nullable
+  public static ChunkSnapshot read(CompoundNBT nbt) {
+    if (nbt.getInt("DataVersion") != SharedConstants.getCurrentVersion().getWorldVersion()) {
+      return null;
+    }
+
+    CompoundNBT level = nbt.getCompound("Level");
+    if (!ChunkStatus.FULL.getName().equals(level.getString("Status"))) {
+      return null;
+    }
+
+    CompoundNBT heightmaps = level.getCompound("Heightmaps");
+    if (!heightmaps.contains(Heightmap.Type.MOTION_BLOCKING.getSerializationKey(), Constants.NBT.TAG_LONG_ARRAY)) {
+      return null;
+    }
+
+    byte[] sectionKinds = new byte[SECTIONS];
+    long[][] sectionBlocks = new long[SECTIONS][];
+    ListNBT sections = level.getList("Sections", Constants.NBT.TAG_COMPOUND);
+    for (int i = 0; i < sections.size(); i++) {
+      CompoundNBT section = sections.getCompound(i);
+      int y = section.getByte("Y");
+      // Light is also saved for the sections just outside the build height
+      if (y < 0 || y >= SECTIONS || !section.contains("Palette", Constants.NBT.TAG_LIST)) {
+        continue;
+      }
+
+      ListNBT palette = section.getList("Palette", Constants.NBT.TAG_COMPOUND);
+      byte[] paletteKinds = new byte[palette.size()];
+      boolean hasAir = false;
+      boolean hasSolid = false;
+      boolean hasOther = false;
+      for (int j = 0; j < paletteKinds.length; j++) {
+        paletteKinds[j] = getKind(NBTUtil.readBlockState(palette.getCompound(j)));
+        hasAir |= paletteKinds[j] == AIR;
+        hasSolid |= paletteKinds[j] == SOLID;
+        hasOther |= paletteKinds[j] == OTHER;
+      }
+
+      byte kind = getUniformKind(hasAir, hasSolid, hasOther);
+      sectionKinds[y] = kind;
+      if (kind == MIXED) {
+        // Saved palettes are always local, with at least 4 bits per block
+        int bits = Math.max(4, MathHelper.ceillog2(paletteKinds.length));
+        BitArray storage = new BitArray(bits, 4096, section.getLongArray("BlockStates"));
+        long[] blocks = new long[SECTION_LONGS];
+        for (int index = 0; index < 4096; index++) {
+          int id = storage.get(index);
+          set(blocks, index, id < paletteKinds.length ? paletteKinds[id] : AIR);
+        }
+        sectionBlocks[y] = blocks;
+      }
+    }
+
+    BitArray heightmap = new BitArray(9, 256, heightmaps.getLongArray(Heightmap.Type.MOTION_BLOCKING.getSerializationKey()));
+    short[] heights = new short[256];
+    for (int i = 0; i < 256; i++) {
+      heights[i] = (short) heightmap.get(i);
+    }
+    return new ChunkSnapshot(sectionKinds, sectionBlocks, heights);
+  }
+
+  /**
+   * @param x Block x within the chunk
+   * @param z Block z within the chunk
+   */
+  public int getHeight(int x, int z) {
+    return this.heights[x + z * 16];
+  }
+
+  /**
+   * @param x Block x within the chunk
+   * @param y Block y, between 0 and 255
+   * @param z Block z within the chunk
+   */
+  public byte getBlockKind(int x, int y, int z) {
+    byte kind = this.sectionKinds[y >> 4];
+    if (kind != MIXED) {
+      return kind;
+    }
+    return get(this.sectionBlocks[y >> 4], (y & 15) << 8 | z << 4 | x);
+  }
+
+  /**
+   * @return The kind of every block in the section holding {@code y}, or -1 if
+   *         the section has blocks of different kinds
+   */
+  public int getSectionKind(int y) {
+    byte kind = this.sectionKinds[y >> 4];
+    return kind == MIXED ? -1 : kind;
+  }
+
+  /**
+   * @return Roughly how many bytes this snapshot takes up
+   */
+  public long getSizeBytes() {
+    long size = 64L + this.sectionKinds.length + this.heights.length * 2L;
+    for (long[] blocks : this.sectionBlocks) {
+      if (blocks != null) {
+        size += 16L + blocks.length * 8L;
+      }
+    }
+    return size;
+  }
+
+  static byte getKind(BlockState state) {
+    if (state.isAir()) {
+      return AIR;
+    }
+    return state.getMaterial().isSolid() ? SOLID : OTHER;
+  }
+
+  private static byte getUniformKind(boolean hasAir, boolean hasSolid, boolean hasOther) {
+    if (!hasSolid && !hasOther) {
+      return AIR;
+    }
+    if (hasSolid && !hasAir && !hasOther) {
+      return SOLID;
+    }
+    if (hasOther && !hasAir && !hasSolid) {
+      return OTHER;
+    }
+    return MIXED;
+  }
+
+  private static long[] pack(BitArray storage, IPalette<BlockState> palette) {
+    long[] blocks = new long[SECTION_LONGS];
+    // Kinds of the palette ids looked up so far, plus one so 0 means not looked up yet
+    byte[] kinds = new byte[16];
+    for (int index = 0; index < 4096; index++) {
+      int id = storage.get(index);
+      if (id >= kinds.length) {
+        kinds = Arrays.copyOf(kinds, Math.max(id + 1, kinds.length * 2));
+      }
+      if (kinds[id] == 0) {
+        BlockState state = palette.valueFor(id);
+        kinds[id] = (byte) ((state == null ? AIR : getKind(state)) + 1);
+      }
+      set(blocks, index, kinds[id] - 1);
+    }
+    return blocks;
+  }
+
+  private static void set(long[] blocks, int index, int kind) {
+    blocks[index >> 5] |= (long) kind << ((index & 31) << 1);
+  }
+
+  private static byte get(long[] blocks, int index) {
+    return (byte) ((blocks[index >> 5] >>> ((index & 31) << 1)) & 3);
+  }
+}
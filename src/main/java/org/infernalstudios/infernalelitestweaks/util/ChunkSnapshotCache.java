@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
+
+/**
+ * Least recently used cache of {@link ChunkSnapshot}s for a world, bounded by
+ * {@link IETConfig#SNAPSHOT_CACHE_BYTES}. Snapshots are dropped when a block
+ * in their chunk changes, and otherwise expire after
+ * {@link IETConfig#SNAPSHOT_MAX_AGE_TICKS}, since not every block change is
+ * announced. Must only be used on the server thread.
+ */
+public final class ChunkSnapshotCache {
+  private static final Map<RegistryKey<World>, ChunkSnapshotCache> CACHES = new HashMap<>();
+
+  private final Map<Long, Entry> entries = new LinkedHashMap<>(64, 0.75F, true);
+  private long sizeBytes;
+  private long hits;
+  private long misses;
+
+  private ChunkSnapshotCache() {}
+
+  public static ChunkSnapshotCache get(ServerWorld world) {
+    return CACHES.computeIfAbsent(world.dimension(), dimension -> new ChunkSnapshotCache());
+  }
+
+  /**
+   * Drops the caches of every world, used when the server stops.
+   */
+  public static void clearAll() {
+    CACHES.clear();
+  }
+
+  /**
+   * @return The cached snapshot of the chunk, or null if there's none or it
+   *         expired
+   */
+  @Nullable
+  public ChunkSnapshot get(ServerWorld world, ChunkPos chunk) {
+    Entry entry = this.entries.get(chunk.toLong());
+    if (entry != null && world.getGameTime() - entry.gameTime > IETConfig.SNAPSHOT_MAX_AGE_TICKS.get()) {
+      this.remove(chunk.toLong());
+      entry = null;
+    }
+
+    if (entry == null) {
+      this.misses++;
+      return null;
+    }
+    this.hits++;
+    return entry.snapshot;
+  }
+
+  /**
+   * Returns the cached snapshot of a chunk, or loads the chunk and takes one.
+   */
+  public ChunkSnapshot getOrTake(ServerWorld world, int chunkX, int chunkZ) {
+    ChunkPos chunk = new ChunkPos(chunkX, chunkZ);
+    ChunkSnapshot snapshot = this.get(world, chunk);
+    if (snapshot == null) {
+      snapshot = ChunkSnapshot.of(world.getChunk(chunkX, chunkZ));
+      this.put(world, chunk, snapshot);
+    }
+    return snapshot;
+  }
+
+  public void put(ServerWorld world, ChunkPos chunk, ChunkSnapshot snapshot) {
+    long budget = IETConfig.SNAPSHOT_CACHE_BYTES.get();
+    if (snapshot.getSizeBytes() > budget) {
+      return;
+    }
+
+    this.remove(chunk.toLong());
+    this.entries.put(chunk.toLong(), new Entry(snapshot, world.getGameTime()));
+    this.sizeBytes += snapshot.getSizeBytes();
+
+    Iterator<Entry> iterator = this.entries.values().iterator();
+    while (this.sizeBytes > budget && iterator.hasNext()) {
+      this.sizeBytes -= iterator.next().snapshot.getSizeBytes();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Drops the snapshot of the chunk holding the given block.
+   */
+  public void onBlockChanged(int x, int z) {
+    // Called for most block updates, so skip the lookup when there's nothing to drop
+    if (!this.entries.isEmpty()) {
+      this.remove(ChunkPos.asLong(x >> 4, z >> 4));
+    }
+  }
+
+  private void remove(long chunk) {
+    Entry entry = this.entries.remove(chunk);
+    if (entry != null) {
+      this.sizeBytes -= entry.snapshot.getSizeBytes();
+    }
+  }
+
+  public int size() {
+    return this.entries.size();
+  }
+
+  public long getSizeBytes() {
+    return this.sizeBytes;
+  }
+
+  public long getHits() {
+    return this.hits;
+  }
+
+  public long getMisses() {
+    return this.misses;
+  }
+
+  private static final class Entry {
+    private final ChunkSnapshot snapshot;
+    private final long gameTime;
+
+    private Entry(ChunkSnapshot snapshot, long gameTime) {
+      this.snapshot = snapshot;
+      this.gameTime = gameTime;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import static org.infernalstudios.infernalelitestweaks.util.SectionBlockReader.AIR;
+import static org.infernalstudios.infernalelitestweaks.util.SectionBlockReader.SOLID;
+
+import java.util.Arrays;
+
+/**
+ * Run-length index of the air, solid and other blocks in each column of an
+ * area, from y 0 up to a given height. Each column is read once, the first
+ * time it's used, after which every query is a lookup against its runs.
+ */
+public final class ColumnRunIndex {
+  private final BlockAccess reader;
+  private final int minX;
+  private final int minZ;
+  private final int sizeX;
+  private final int height;
+  /**
+   * Bottom of each run, ascending, per column.
+   */
+  private final short[][] runBottoms;
+  private final byte[][] runKinds;
+
+  private final short[] scratchBottoms;
+  private final byte[] scratchKinds;
+  private int probes;
+
+  /**
+   * @param height Columns are indexed from y 0 up to, but not including, this height
+   */
+  public ColumnRunIndex(BlockAccess reader, int minX, int minZ, int maxX, int maxZ, int height) {
+    this.reader = reader;
+    this.minX = minX;
+    this.minZ = minZ;
+    this.sizeX = maxX - minX + 1;
+    this.height = height;
+    this.runBottoms = new short[this.sizeX * (maxZ - minZ + 1)][];
+    this.runKinds = new byte[this.runBottoms.length][];
+    this.scratchBottoms = new short[height];
+    this.scratchKinds = new byte[height];
+  }
+
+  /**
+   * @return {@link SectionBlockReader#AIR}, {@link SectionBlockReader#SOLID} or
+   *         {@link SectionBlockReader#OTHER}
+   */
+  public byte getKind(int x, int y, int z) {
+    if (y < 0 || y >= this.height) {
+      return this.reader.getBlockKind(x, y, z);
+    }
+
+    int column = this.getColumn(x, z);
+    return this.runKinds[column][this.findRun(column, y)];
+  }
+
+  /**
+   * Finds the highest air block in a column at or below {@code y}, which has to
+   * be below the indexed height.
+   * @return The air block's height, or -1 if there's none
+   */
+  public int findAirBelow(int x, int y, int z) {
+    if (y < 0) {
+      return -1;
+    }
+
+    int column = this.getColumn(x, z);
+    int run = this.findRun(column, y);
+    if (this.runKinds[column][run] == AIR) {
+      return y;
+    }
+
+    for (run--; run >= 0; run--) {
+      if (this.runKinds[column][run] == AIR) {
+        return this.runBottoms[column][run + 1] - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the bottom of the run of air blocks a column has at {@code y}, the
+   * block at {@code y} must be air.
+   * @return The lowest air block's height, never below 0
+   */
+  public int findAirBottom(int x, int y, int z) {
+    int column = this.getColumn(x, z);
+    return this.runBottoms[column][this.findRun(column, y)];
+  }
+
+  /**
+   * Checks whether a column has solid ground below {@code y} and air at
+   * {@code y} and the block above it.
+   */
+  public boolean fits(int x, int y, int z) {
+    if (y <= 0 || y + 1 >= this.height) {
+      return this.getKind(x, y - 1, z) == SOLID && this.getKind(x, y, z) == AIR && this.getKind(x, y + 1, z) == AIR;
+    }
+
+    int column = this.getColumn(x, z);
+    int run = this.findRun(column, y);
+    if (this.runKinds[column][run] != AIR) {
+      return false;
+    }
+
+    short[] bottoms = this.runBottoms[column];
+    // The air has to reach y + 1, and the run below the air starts at y - 1 at the latest
+    boolean tallEnough = run + 1 >= bottoms.length || bottoms[run + 1] > y + 1;
+    return tallEnough && bottoms[run] == y && this.runKinds[column][run - 1] == SOLID;
+  }
+
+  private int findRun(int column, int y) {
+    short[] bottoms = this.runBottoms[column];
+    int low = 0;
+    int high = bottoms.length - 1;
+    // Find the last run starting at or below y, the first run always starts at 0
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (bottoms[mid] <= y) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return How many blocks, or whole sections, were read to build the columns
+   *         so far
+   */
+  public int getProbes() {
+    return this.probes;
+  }
+
+  private int getColumn(int x, int z) {
+    int column = (x - this.minX) + (z - this.minZ) * this.sizeX;
+    if (this.runBottoms[column] == null) {
+      this.buildColumn(column, x, z);
+    }
+    return column;
+  }
+
+  private void buildColumn(int column, int x, int z) {
+    int runs = 0;
+    int previousKind = -1;
+    int y = 0;
+    while (y < this.height) {
+      int kind;
+      int step;
+      this.probes++;
+      // Sections of a single kind are added in one step
+      if ((y & 15) == 0 && y + 16 <= this.height && (kind = this.reader.getSectionKind(x, y, z)) >= 0) {
+        step = 16;
+      } else {
+        kind = this.reader.getBlockKind(x, y, z);
+        step = 1;
+      }
+
+      if (kind != previousKind) {
+        this.scratchBottoms[runs] = (short) y;
+        this.scratchKinds[runs] = (byte) kind;
+        runs++;
+        previousKind = kind;
+      }
+      y += step;
+    }
+
+    this.runBottoms[column] = Arrays.copyOf(this.scratchBottoms, runs);
+    this.runKinds[column] = Arrays.copyOf(this.scratchKinds, runs);
+  }
+}
@@ -17,36 +17,81 @@
 package org.infernalstudios.infernalelitestweaks.util;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+import org.infernalstudios.infernalelitestweaks.stats.IETStats;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import net.minecraft.util.Direction;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.BlockPos.Mutable;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.MathHelper;
-import net.minecraft.util.math.vector.Vector3i;
 import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeManager;
 import net.minecraft.world.border.WorldBorder;
-import net.minecraft.world.gen.Heightmap;
 import net.minecraft.world.server.ServerWorld;
 
 public final class IETUtil {
   private IETUtil() {} // Uninstantiable
 
+  static final int SAFE_POSITION_RADIUS = 16;
+  private static final int SPREAD_RADIUS = 4;
+  private static final int SPREAD_HEIGHT = 3;
+
+  /**
+   * Finds the nearest position of each given biome around a coordinate, nearest
+   * first. All biomes are searched in a single pass over the biome source, so no
+   * chunks are loaded and this is safe to call off the server thread.
+   */
+  public static BiomeSearch.Result findSpawnableBiomePositions(ServerWorld world, List<Biome> biomes, BlockPos nearpos, int radius) {
+    return IETUtil.findSpawnableBiomePositions(world.getChunkSource().getGenerator().getBiomeSource(), biomes, nearpos, radius);
+  }
+
+  /**
+   * Same as {@link #findSpawnableBiomePositions(ServerWorld, List, BlockPos, int)},
+   * but searches any biome source.
+   */
+  public static BiomeSearch.Result findSpawnableBiomePositions(BiomeManager.IBiomeReader biomeSource, List<Biome> biomes, BlockPos nearpos, int radius) {
+    return BiomeSearch.findNearest(biomeSource, biomes, nearpos, radius, IETConfig.BIOME_SAMPLE_STRIDE.get());
+  }
+
+  /**
+   * Finds the nearest safe position in one of the given biomes around a
+   * coordinate. Searches any biome source and reads blocks from
+   * {@code blocks}, which has to hold every block {@link #getSafePosition}
+   * reads around the found positions.
+   * @param dimHeight Logical height of the world
+   */
   @Nullable
-  public static BlockPos getSpawnableBiomesPosition(ServerWorld world, List<Biome> biomes, BlockPos nearpos, int radius) {
-    List<BlockPos> spawnableBiomePositions = new ArrayList<BlockPos>(biomes.size());
-    for (Biome biome : biomes) {
-      spawnableBiomePositions.add(getSpawnableBiomePosition(world, biome, nearpos, radius));
-    }
+  public static BlockPos getSpawnableBiomesPosition(BiomeManager.IBiomeReader biomeSource, BlockAccess blocks, WorldBorder worldborder, int dimHeight, List<Biome> biomes, BlockPos nearpos, int radius) {
+    List<BlockPos> candidates = IETUtil.findSpawnableBiomePositions(biomeSource, biomes, nearpos, radius).getPositions();
+    return IETUtil.getNearestSafePosition(blocks, worldborder, dimHeight, candidates, nearpos);
+  }
 
+  /**
+   * Runs {@link #getSafePosition} around each candidate and returns the result
+   * nearest to {@code nearpos}, reading blocks from {@code blocks}.
+   */
+  @Nullable
+  public static BlockPos getNearestSafePosition(BlockAccess blocks, WorldBorder worldborder, int dimHeight, List<BlockPos> candidates, BlockPos nearpos) {
     BlockPos nearestBlockPos = null;
-    for (BlockPos pos : spawnableBiomePositions) {
+    for (BlockPos candidate : candidates) {
+      BlockPos pos = IETUtil.getSafePosition(blocks, worldborder, dimHeight, candidate);
       if (pos != null) {
         if (nearestBlockPos == null) {
           nearestBlockPos = pos;
-        } else if (nearestBlockPos.distSqr(new Vector3i(nearpos.getX(), nearpos.getY(), nearpos.getZ())) > pos.distSqr(new Vector3i(nearpos.getX(), nearpos.getY(), nearpos.getZ()))) {
+        } else if (nearestBlockPos.distSqr(nearpos) > pos.distSqr(nearpos)) {
           nearestBlockPos = pos;
         }
       }
@@ -55,81 +100,241 @@ public final class IETUtil {
     return nearestBlockPos;
   }
 
-  @Nullable
-  public static BlockPos getSpawnableBiomePosition(ServerWorld world, Biome biome, BlockPos nearpos, int radius) {
-    BlockPos pos = world.findNearestBiome(biome, nearpos, radius, 1);
-    if (pos == null) {
-      return null;
+  /**
+   * Returns every chunk {@link #getSafePosition} reads from when searching
+   * around the given positions.
+   */
+  public static Set<ChunkPos> getSafePositionChunks(Collection<BlockPos> positions) {
+    Set<ChunkPos> chunks = new LinkedHashSet<>();
+    for (BlockPos pos : positions) {
+      int minX = (pos.getX() - SAFE_POSITION_RADIUS - 1) >> 4;
+      int maxX = (pos.getX() + SAFE_POSITION_RADIUS + 1) >> 4;
+      int minZ = (pos.getZ() - SAFE_POSITION_RADIUS - 1) >> 4;
+      int maxZ = (pos.getZ() + SAFE_POSITION_RADIUS + 1) >> 4;
+      for (int x = minX; x <= maxX; x++) {
+        for (int z = minZ; z <= maxZ; z++) {
+          chunks.add(new ChunkPos(x, z));
+        }
+      }
     }
-    return pos == null ? null : IETUtil.getSafePosition(world, pos);
+    return chunks;
   }
 
   /**
-   * Finds a safe* position in given world around a coordinate.
-   * * - Not in block and not in lava. Can be over lava though.
+   * Checks whether a player can still be placed at a previously resolved
+   * position. Must be called on the server thread with the chunks from
+   * {@link #getPlacementChunks} loaded.
+   */
+  public static boolean isValidSpawnPosition(ServerWorld world, BlockPos pos) {
+    SectionBlockReader reader = new SectionBlockReader(world, pos.getX() - 1, pos.getZ() - 1, pos.getX() + 1, pos.getZ() + 1);
+    return IETUtil.isValidSpawnPosition(reader, world.getWorldBorder(), world.getHeight(), pos);
+  }
+
+  /**
+   * Same as {@link #isValidSpawnPosition(ServerWorld, BlockPos)}, but reads
+   * blocks from {@code blocks}.
+   * @param dimHeight Logical height of the world
+   */
+  public static boolean isValidSpawnPosition(BlockAccess blocks, WorldBorder worldborder, int dimHeight, BlockPos pos) {
+    Direction direction = Direction.get(Direction.AxisDirection.POSITIVE, Direction.Axis.X);
+    if (!worldborder.isWithinBounds(pos) || !worldborder.isWithinBounds(pos.relative(direction))) {
+      return false;
+    }
+
+    int minX = pos.getX() - 1;
+    int minZ = pos.getZ() - 1;
+    int maxX = pos.getX() + 1;
+    int maxZ = pos.getZ() + 1;
+    ColumnRunIndex index = new ColumnRunIndex(blocks, minX, minZ, maxX, maxZ, dimHeight);
+    return IETUtil.checkRegionForPlacement(index, pos.getX(), pos.getY(), pos.getZ(), direction, 0);
+  }
+
+  /**
+   * Returns every chunk {@link #isValidSpawnPosition} reads from.
+   */
+  public static Set<ChunkPos> getPlacementChunks(BlockPos pos) {
+    Set<ChunkPos> chunks = new LinkedHashSet<>();
+    for (int x = (pos.getX() - 1) >> 4; x <= (pos.getX() + 1) >> 4; x++) {
+      for (int z = (pos.getZ() - 1) >> 4; z <= (pos.getZ() + 1) >> 4; z++) {
+        chunks.add(new ChunkPos(x, z));
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * Finds up to {@code count} safe positions around an already safe one, so
+   * players that spawn together don't end up inside each other. {@code pos}
+   * comes first, followed by the nearest positions within
+   * {@value #SPREAD_RADIUS} blocks that are at least two blocks away from the
+   * ones before them. Must be called on the server thread with the chunks from
+   * {@link #getSpreadChunks} loaded.
+   * @return The positions, fewer than {@code count} if there isn't enough room
    */
-  public static BlockPos getSafePosition(ServerWorld world, BlockPos pos) {
+  public static List<BlockPos> getSpreadPositions(ServerWorld world, BlockPos pos, int count) {
+    List<BlockPos> positions = new ArrayList<>(count);
+    positions.add(pos);
+    if (count <= 1) {
+      return positions;
+    }
+
     Direction direction = Direction.get(Direction.AxisDirection.POSITIVE, Direction.Axis.X);
-    double shortestDistToOpen = -1.0D; // The shortest distance^2 found to an "open" area where a portal will fit
-    double shortestDistToFit = -1.0D; // The shortest distance^2 found to ANY area where a portal will fit
-    BlockPos safePos = null;
-    BlockPos tempPos = null;
     WorldBorder worldborder = world.getWorldBorder();
-    int dimHeight = world.getHeight(); // Logical height of the world
-    Mutable mutablePos = pos.mutable();
+    int minX = pos.getX() - SPREAD_RADIUS - 1;
+    int minZ = pos.getZ() - SPREAD_RADIUS - 1;
+    int maxX = pos.getX() + SPREAD_RADIUS + 1;
+    int maxZ = pos.getZ() + SPREAD_RADIUS + 1;
+    SectionBlockReader reader = new SectionBlockReader(world, minX, minZ, maxX, maxZ);
+    ColumnRunIndex index = new ColumnRunIndex(reader, minX, minZ, maxX, maxZ, world.getHeight());
+    Mutable candidate = new Mutable();
+
+    for (Mutable currentPos : BlockPos.spiralAround(pos, SPREAD_RADIUS, Direction.EAST, Direction.SOUTH)) {
+      if (positions.size() >= count) {
+        break;
+      }
+
+      int x = currentPos.getX();
+      int z = currentPos.getZ();
+      if (!isApart(positions, x, z)) {
+        continue;
+      }
+
+      // Tries the same height first, then alternates above and below it
+      for (int i = 0; i <= SPREAD_HEIGHT * 2; i++) {
+        int y = pos.getY() + ((i & 1) == 1 ? (i + 1) / 2 : -(i / 2));
+        candidate.set(x, y, z);
+        if (worldborder.isWithinBounds(candidate) && worldborder.isWithinBounds(candidate.relative(direction)) &&
+            IETUtil.checkRegionForPlacement(index, x, y, z, direction, 0)) {
+          positions.add(candidate.immutable());
+          break;
+        }
+      }
+    }
+    return positions;
+  }
+
+  private static boolean isApart(List<BlockPos> positions, int x, int z) {
+    for (BlockPos other : positions) {
+      if (Math.abs(other.getX() - x) < 2 && Math.abs(other.getZ() - z) < 2) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns every chunk {@link #getSpreadPositions} reads from.
+   */
+  public static Set<ChunkPos> getSpreadChunks(BlockPos pos) {
+    Set<ChunkPos> chunks = new LinkedHashSet<>();
+    for (int x = (pos.getX() - SPREAD_RADIUS - 1) >> 4; x <= (pos.getX() + SPREAD_RADIUS + 1) >> 4; x++) {
+      for (int z = (pos.getZ() - SPREAD_RADIUS - 1) >> 4; z <= (pos.getZ() + SPREAD_RADIUS + 1) >> 4; z++) {
+        chunks.add(new ChunkPos(x, z));
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * Finds a safe* position around a coordinate, reading blocks from
+   * {@code blocks}, which has to hold every block within
+   * {@value #SAFE_POSITION_RADIUS} + 1 blocks of {@code pos} horizontally.
+   * * - Not in block and not in lava. Can be over lava though.
+   * @param dimHeight Logical height of the world
+   */
+  @Nullable
+  public static BlockPos getSafePosition(BlockAccess reader, WorldBorder worldborder, int dimHeight, BlockPos pos) {
+    return IETUtil.scanRings(reader, worldborder, dimHeight, pos, 0, SAFE_POSITION_RADIUS, null).toSafePosition(worldborder, dimHeight, pos);
+  }
+
+  /**
+   * Runs the {@link #getSafePosition} search for the rings of the spiral from
+   * {@code minRing} to {@code maxRing}. Bands of rings can be scanned on
+   * separate threads and merged afterwards, since the search keeps the closest
+   * position found and breaks ties by spiral order either way.
+   * @param sharedDistToOpen The bits of the shortest distance^2 to an "open"
+   *        area any band has found so far, or null when scanning alone
+   */
+  private static RingScan scanRings(BlockAccess reader, WorldBorder worldborder, int dimHeight, BlockPos pos, int minRing, int maxRing, @Nullable AtomicLong sharedDistToOpen) {
+    Direction direction = Direction.get(Direction.AxisDirection.POSITIVE, Direction.Axis.X);
+    RingScan scan = new RingScan(sharedDistToOpen);
+    int minX = pos.getX() - SAFE_POSITION_RADIUS - 1;
+    int minZ = pos.getZ() - SAFE_POSITION_RADIUS - 1;
+    int maxX = pos.getX() + SAFE_POSITION_RADIUS + 1;
+    int maxZ = pos.getZ() + SAFE_POSITION_RADIUS + 1;
+    // Each column is read once, every check after that is a lookup against its runs of air and solid blocks
+    ColumnRunIndex index = new ColumnRunIndex(reader, minX, minZ, maxX, maxZ, dimHeight);
+    int order = -1;
 
     // For each BlockPos in a 16x16 area to the Southeast?
-    for (Mutable currentPos : BlockPos.spiralAround(pos, 16, Direction.EAST, Direction.SOUTH)) {
+    for (Mutable currentPos : BlockPos.spiralAround(pos, SAFE_POSITION_RADIUS, Direction.EAST, Direction.SOUTH)) {
+      order++;
+      int x = currentPos.getX();
+      int z = currentPos.getZ();
+      int ring = Math.max(Math.abs(x - pos.getX()), Math.abs(z - pos.getZ()));
+      if (ring < minRing) {
+        continue;
+      }
 
-      int minDimHeight = Math.min(dimHeight - 1,
-          world.getHeight(Heightmap.Type.MOTION_BLOCKING, currentPos.getX(), currentPos.getZ()));
+      // Only a closer "open" area can replace the one already found, so columns
+      // that can't get that close are skipped. The spiral visits rings in order,
+      // so once a whole ring is too far away the rest of the search is too.
+      if (ring > maxRing || scan.isPruned(getMinRingDistSqr(ring))) {
+        break;
+      }
+      if (scan.isPruned(getHorizontalDistSqr(pos, x, z) + 0.25D)) {
+        continue;
+      }
+
+      int minDimHeight = Math.min(dimHeight - 1, reader.getHeight(x, z));
 
       if (worldborder.isWithinBounds(currentPos) && worldborder.isWithinBounds(currentPos.move(direction, 1))) {
         currentPos.move(direction.getOpposite(), 1);
 
-        for (int height = minDimHeight; height >= 0; height--) {
+        // Every run of air in the column, from the top down
+        for (int height = index.findAirBelow(x, minDimHeight, z); height >= 0; height = index.findAirBelow(x, height - 1, z)) {
 
-          currentPos.setY(height);
-          if (world.isEmptyBlock(currentPos)) {
+          int currentHeight = height;
 
-            int currentHeight = height;
+          // Find the height where there isn't air
+          height = index.findAirBottom(x, height, z);
 
-            // Find the height where there isn't air
-            while (height > 0 && world.isEmptyBlock(currentPos.move(Direction.DOWN))) {
-              height--;
-            }
+          // If height is low-enough from dimension height to place a portal
+          if (height + 4 <= dimHeight - 1) {
+
+            int deltaHeight = currentHeight - height;
+
+            if (deltaHeight <= 0 || deltaHeight >= 3) {
 
-            // If height is low-enough from dimension height to place a portal
-            if (height + 4 <= dimHeight - 1) {
-
-              int deltaHeight = currentHeight - height;
-
-              if (deltaHeight <= 0 || deltaHeight >= 3) {
-                currentPos.setY(height);
-
-                // If currentPos is valid for placement
-                if (IETUtil.checkRegionForPlacement(world, currentPos, mutablePos, direction, 0)) {
-
-                  // Calculate distance^2 to current position
-                  double currentDist = pos.distSqr(currentPos);
-
-                  // If positions next to current position are valid for placement and currentPos
-                  // is closer than the next-closest open position, then...
-                  // this area is likely an "open" area and now the closest to the original
-                  // position we were looking at
-                  if (IETUtil.checkRegionForPlacement(world, currentPos, mutablePos, direction, -1) &&
-                      IETUtil.checkRegionForPlacement(world, currentPos, mutablePos, direction, 1) &&
-                      (shortestDistToOpen == -1.0D || shortestDistToOpen > currentDist)) {
-                    shortestDistToOpen = currentDist;
-                    safePos = currentPos.immutable();
-                  }
-
-                  // If no "open" area has been found, then...
-                  // this is the closest place to the original position where it can fit
-                  if (shortestDistToOpen == -1.0D && (shortestDistToFit == -1.0D || shortestDistToFit > currentDist)) {
-                    shortestDistToFit = currentDist;
-                    tempPos = currentPos.immutable();
-                  }
+              // Calculate distance^2 to current position
+              double currentDist = pos.distSqr(x, height, z, true);
+
+              // Skip heights that can't beat the closest "open" area, and the rest of
+              // the column once it's only getting further away
+              if (scan.isPruned(currentDist)) {
+                if (height <= pos.getY()) {
+                  break;
+                }
+                continue;
+              }
+
+              // If currentPos is valid for placement
+              if (IETUtil.checkRegionForPlacement(index, x, height, z, direction, 0)) {
+
+                // If positions next to current position are valid for placement and currentPos
+                // is closer than the next-closest open position, then...
+                // this area is likely an "open" area and now the closest to the original
+                // position we were looking at
+                if (IETUtil.checkRegionForPlacement(index, x, height, z, direction, -1) &&
+                    IETUtil.checkRegionForPlacement(index, x, height, z, direction, 1) &&
+                    (scan.shortestDistToOpen == -1.0D || scan.shortestDistToOpen > currentDist)) {
+                  scan.setOpen(new BlockPos(x, height, z), currentDist, order);
+                }
+
+                // If no "open" area has been found, then...
+                // this is the closest place to the original position where it can fit
+                if (scan.shortestDistToOpen == -1.0D && (scan.shortestDistToFit == -1.0D || scan.shortestDistToFit > currentDist)) {
+                  scan.setFit(new BlockPos(x, height, z), currentDist, order);
                 }
               }
             }
@@ -138,55 +343,225 @@ public final class IETUtil {
       }
     }
 
-    // If no "open" area was found, use the closest area where a portal will fit
-    if (shortestDistToOpen == -1.0D && shortestDistToFit != -1.0D) {
-      safePos = tempPos;
-      shortestDistToOpen = shortestDistToFit;
+    IETStats.BLOCKS_PROBED.add(index.getProbes());
+    return scan;
+  }
+
+  /**
+   * Same as {@link #getNearestSafePosition(BlockAccess, WorldBorder, int, List, BlockPos)},
+   * but reads blocks from snapshots of the chunks from
+   * {@link #getSafePositionChunks}, and every candidate is searched at once on
+   * the given pool, with each candidate's spiral split into {@code bands} bands
+   * of rings. The result doesn't depend on how the work is split or scheduled.
+   * @param chunks Snapshots keyed by {@link ChunkPos#toLong}
+   */
+  @Nullable
+  public static BlockPos getNearestSafePosition(ForkJoinPool pool, int bands, Long2ObjectMap<ChunkSnapshot> chunks, WorldBorder worldborder, int dimHeight, List<BlockPos> candidates, BlockPos nearpos) {
+    return IETUtil.getNearestSafePosition(pool, bands, candidate -> new SectionBlockReader(chunks,
+        candidate.getX() - SAFE_POSITION_RADIUS - 1, candidate.getZ() - SAFE_POSITION_RADIUS - 1,
+        candidate.getX() + SAFE_POSITION_RADIUS + 1, candidate.getZ() + SAFE_POSITION_RADIUS + 1),
+        worldborder, dimHeight, candidates, nearpos);
+  }
+
+  /**
+   * Same as {@link #getNearestSafePosition(ForkJoinPool, int, Long2ObjectMap, WorldBorder, int, List, BlockPos)},
+   * but reads blocks from {@code blocks}.
+   */
+  @Nullable
+  public static BlockPos getNearestSafePosition(ForkJoinPool pool, int bands, BlockAccess blocks, WorldBorder worldborder, int dimHeight, List<BlockPos> candidates, BlockPos nearpos) {
+    return IETUtil.getNearestSafePosition(pool, bands, candidate -> blocks, worldborder, dimHeight, candidates, nearpos);
+  }
+
+  /**
+   * @param readers The blocks around each candidate
+   */
+  @Nullable
+  private static BlockPos getNearestSafePosition(ForkJoinPool pool, int bands, Function<BlockPos, BlockAccess> readers, WorldBorder worldborder, int dimHeight, List<BlockPos> candidates, BlockPos nearpos) {
+    int[] bandRings = IETUtil.getRingBands(bands);
+    List<List<ForkJoinTask<RingScan>>> tasks = new ArrayList<>(candidates.size());
+    for (BlockPos candidate : candidates) {
+      BlockAccess reader = readers.apply(candidate);
+      AtomicLong sharedDistToOpen = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+      List<ForkJoinTask<RingScan>> candidateTasks = new ArrayList<>(bandRings.length);
+      int minRing = 0;
+      for (int maxRing : bandRings) {
+        int bandMinRing = minRing;
+        candidateTasks.add(pool.submit(() -> IETUtil.scanRings(reader, worldborder, dimHeight, candidate, bandMinRing, maxRing, sharedDistToOpen)));
+        minRing = maxRing + 1;
+      }
+      tasks.add(candidateTasks);
     }
 
-    // If the portal will fit nowhere, return the original position (clamped to
-    // between y 70 and dimension height - 10) as the best candidate, unless it's
-    // not in the world border
-    if (shortestDistToOpen == -1.0D) {
-      safePos = (new BlockPos(pos.getX(), MathHelper.clamp(pos.getY(), 70, dimHeight - 10), pos.getZ())).immutable();
-      // If the original position is not in the world border, return that there is NO
-      // safe position for a portal
-      if (!worldborder.isWithinBounds(safePos)) {
-        return null;
+    // Merged in candidate order, so ties go to the same candidate as a sequential search
+    BlockPos nearestBlockPos = null;
+    for (int i = 0; i < candidates.size(); i++) {
+      RingScan scan = new RingScan(null);
+      for (ForkJoinTask<RingScan> task : tasks.get(i)) {
+        scan.merge(task.join());
+      }
+
+      BlockPos pos = scan.toSafePosition(worldborder, dimHeight, candidates.get(i));
+      if (pos != null) {
+        if (nearestBlockPos == null) {
+          nearestBlockPos = pos;
+        } else if (nearestBlockPos.distSqr(nearpos) > pos.distSqr(nearpos)) {
+          nearestBlockPos = pos;
+        }
       }
     }
 
-    return safePos;
+    return nearestBlockPos;
+  }
+
+  /**
+   * Splits the rings of the spiral into bands holding about as many positions
+   * each.
+   * @return The last ring of each band
+   */
+  private static int[] getRingBands(int bands) {
+    bands = MathHelper.clamp(bands, 1, SAFE_POSITION_RADIUS + 1);
+    int[] bandRings = new int[bands];
+    int side = SAFE_POSITION_RADIUS * 2 + 1;
+    int ring = 0;
+    for (int band = 0; band < bands; band++) {
+      // Rings 0 to r hold (2r + 1)^2 positions
+      long positions = (long) side * side * (band + 1) / bands;
+      while (ring < SAFE_POSITION_RADIUS && (long) (ring * 2 + 1) * (ring * 2 + 1) < positions) {
+        ring++;
+      }
+      bandRings[band] = ring;
+      ring = Math.min(ring + 1, SAFE_POSITION_RADIUS);
+    }
+    bandRings[bands - 1] = SAFE_POSITION_RADIUS;
+    return bandRings;
+  }
+
+  /**
+   * The smallest distance^2 {@link #getSafePosition} can measure to any
+   * position in a ring of the spiral.
+   */
+  private static double getMinRingDistSqr(int ring) {
+    if (ring == 0) {
+      return 0.75D;
+    }
+    // One axis is ring blocks away, the other and the height at least 0 blocks
+    return (ring - 0.5D) * (ring - 0.5D) + 0.5D;
+  }
+
+  /**
+   * The horizontal part of {@link BlockPos#distSqr(double, double, double, boolean)}
+   * measured from the center of {@code pos}.
+   */
+  private static double getHorizontalDistSqr(BlockPos pos, int x, int z) {
+    double dx = pos.getX() + 0.5D - x;
+    double dz = pos.getZ() + 0.5D - z;
+    return dx * dx + dz * dz;
   }
 
   /**
    * Checks whether the area around the provided position is large enough to
    * teleport a player
    */
-  private static boolean checkRegionForPlacement(ServerWorld world, BlockPos originalPos, Mutable offsetPos, Direction directionIn, int offsetScale) {
+  private static boolean checkRegionForPlacement(ColumnRunIndex index, int originX, int originY, int originZ, Direction directionIn, int offsetScale) {
     Direction direction = directionIn.getClockWise();
 
     for (int x = -1; x < 1; ++x) {
-      for (int y = -1; y < 2; ++y) {
-        offsetPos.setWithOffset(
-          originalPos,
-          directionIn.getStepX() * x + direction.getStepX() * offsetScale,
-          y,
-          directionIn.getStepZ() * x + direction.getStepZ() * offsetScale
-        );
-
-        // If no solid ground beneath offsetPos, return false
-        if (y < 0 && !world.getBlockState(offsetPos).getMaterial().isSolid()) {
-          return false;
-        }
+      int offsetX = originX + directionIn.getStepX() * x + direction.getStepX() * offsetScale;
+      int offsetZ = originZ + directionIn.getStepZ() * x + direction.getStepZ() * offsetScale;
 
-        // If no air within region, return false
-        if (y >= 0 && !world.isEmptyBlock(offsetPos)) {
-          return false;
-        }
+      // If no solid ground beneath the offset position or no air within region, return false
+      if (!index.fits(offsetX, originY, offsetZ)) {
+        return false;
       }
     }
 
     return true;
   }
+
+  /**
+   * The closest positions one band of the spiral found, and their order in it.
+   */
+  private static final class RingScan {
+    @Nullable
+    private final AtomicLong sharedDistToOpen;
+    private double shortestDistToOpen = -1.0D; // The shortest distance^2 found to an "open" area where a portal will fit
+    private double shortestDistToFit = -1.0D; // The shortest distance^2 found to ANY area where a portal will fit
+    private int openOrder;
+    private int fitOrder;
+    @Nullable
+    private BlockPos safePos;
+    @Nullable
+    private BlockPos tempPos;
+
+    private RingScan(@Nullable AtomicLong sharedDistToOpen) {
+      this.sharedDistToOpen = sharedDistToOpen;
+    }
+
+    /**
+     * Whether nothing at this distance^2 can be picked anymore. Other bands can
+     * only rule out strictly further positions, as an equally close one earlier
+     * in the spiral than theirs would still win.
+     */
+    private boolean isPruned(double dist) {
+      if (this.shortestDistToOpen != -1.0D && dist >= this.shortestDistToOpen) {
+        return true;
+      }
+      return this.sharedDistToOpen != null && dist > Double.longBitsToDouble(this.sharedDistToOpen.get());
+    }
+
+    private void setOpen(BlockPos pos, double dist, int order) {
+      this.shortestDistToOpen = dist;
+      this.openOrder = order;
+      this.safePos = pos;
+      if (this.sharedDistToOpen != null) {
+        long current;
+        do {
+          current = this.sharedDistToOpen.get();
+        } while (dist < Double.longBitsToDouble(current) && !this.sharedDistToOpen.compareAndSet(current, Double.doubleToLongBits(dist)));
+      }
+    }
+
+    private void setFit(BlockPos pos, double dist, int order) {
+      this.shortestDistToFit = dist;
+      this.fitOrder = order;
+      this.tempPos = pos;
+    }
+
+    private void merge(RingScan other) {
+      if (other.shortestDistToOpen != -1.0D && (this.shortestDistToOpen == -1.0D || other.shortestDistToOpen < this.shortestDistToOpen ||
+          (other.shortestDistToOpen == this.shortestDistToOpen && other.openOrder < this.openOrder))) {
+        this.shortestDistToOpen = other.shortestDistToOpen;
+        this.openOrder = other.openOrder;
+        this.safePos = other.safePos;
+      }
+      if (other.shortestDistToFit != -1.0D && (this.shortestDistToFit == -1.0D || other.shortestDistToFit < this.shortestDistToFit ||
+          (other.shortestDistToFit == this.shortestDistToFit && other.fitOrder < this.fitOrder))) {
+        this.shortestDistToFit = other.shortestDistToFit;
+        this.fitOrder = other.fitOrder;
+        this.tempPos = other.tempPos;
+      }
+    }
+
+    @Nullable
+    private BlockPos toSafePosition(WorldBorder worldborder, int dimHeight, BlockPos pos) {
+      if (this.safePos != null) {
+        return this.safePos;
+      }
+      // If no "open" area was found, use the closest area where a portal will fit
+      if (this.tempPos != null) {
+        return this.tempPos;
+      }
+
+      // If the portal will fit nowhere, return the original position (clamped to
+      // between y 70 and dimension height - 10) as the best candidate, unless it's
+      // not in the world border
+      BlockPos fallbackPos = (new BlockPos(pos.getX(), MathHelper.clamp(pos.getY(), 70, dimHeight - 10), pos.getZ())).immutable();
+      // If the original position is not in the world border, return that there is NO
+      // safe position for a portal
+      if (!worldborder.isWithinBounds(fallbackPos)) {
+        return null;
+      }
+      return fallbackPos;
+    }
+  }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityClassification;
+import net.minecraft.entity.MobEntity;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.server.ServerWorld;
+
+/**
+ * Monster counts around each player of a world, so a chunk only spawns
+ * monsters while one of the players near it is below their own cap. Monsters
+ * count towards every player within {@link IETConfig#LOCAL_CAPS_RADIUS}
+ * blocks. The counts are redone every {@link IETConfig#LOCAL_CAPS_INTERVAL_TICKS}
+ * ticks and kept up to date with the spawns in between. Must only be used on
+ * the server thread.
+ */
+public final class LocalMobCaps {
+  private static final Map<ServerWorld, LocalMobCaps> CAPS = new HashMap<>();
+
+  private static boolean spawning;
+  private static int spawningChunkX;
+  private static int spawningChunkZ;
+
+  private double[] playerX = new double[0];
+  private double[] playerZ = new double[0];
+  private int[] counts = new int[0];
+  private long lastCount = Long.MIN_VALUE;
+
+  private LocalMobCaps() {}
+
+  public static LocalMobCaps get(ServerWorld world) {
+    return CAPS.computeIfAbsent(world, level -> new LocalMobCaps());
+  }
+
+  public static void remove(ServerWorld world) {
+    CAPS.remove(world);
+  }
+
+  /**
+   * Sets the chunk the spawner is spawning in, or null once it's done.
+   */
+  public static void setSpawningChunk(@Nullable IChunk chunk) {
+    spawning = chunk != null;
+    if (chunk != null) {
+      spawningChunkX = chunk.getPos().x;
+      spawningChunkZ = chunk.getPos().z;
+    }
+  }
+
+  /**
+   * Counts the monsters around each player again if the counts are old.
+   */
+  public void update(ServerWorld world) {
+    if (world.getGameTime() - this.lastCount < IETConfig.LOCAL_CAPS_INTERVAL_TICKS.get()) {
+      return;
+    }
+    this.lastCount = world.getGameTime();
+
+    List<ServerPlayerEntity> players = new ArrayList<>();
+    for (ServerPlayerEntity player : world.players()) {
+      if (!player.isSpectator()) {
+        players.add(player);
+      }
+    }
+
+    this.playerX = new double[players.size()];
+    this.playerZ = new double[players.size()];
+    this.counts = new int[players.size()];
+    for (int i = 0; i < players.size(); i++) {
+      this.playerX[i] = players.get(i).getX();
+      this.playerZ[i] = players.get(i).getZ();
+    }
+
+    for (Entity entity : world.getAllEntities()) {
+      // Same entities as the spawner's own count
+      if (entity.getType().getCategory() != EntityClassification.MONSTER) {
+        continue;
+      }
+      if (entity instanceof MobEntity && (((MobEntity) entity).isPersistenceRequired() || ((MobEntity) entity).requiresCustomPersistence())) {
+        continue;
+      }
+      this.onSpawn(entity.getX(), entity.getZ());
+    }
+  }
+
+  /**
+   * Counts a monster towards the players around it.
+   */
+  public void onSpawn(double x, double z) {
+    double radius = IETConfig.LOCAL_CAPS_RADIUS.get();
+    double radiusSqr = radius * radius;
+    for (int i = 0; i < this.counts.length; i++) {
+      double dx = this.playerX[i] - x;
+      double dz = this.playerZ[i] - z;
+      if (dx * dx + dz * dz <= radiusSqr) {
+        this.counts[i]++;
+      }
+    }
+  }
+
+  /**
+   * @return Whether one of the players near the chunk that's spawning is below
+   *         the cap, or true outside of the spawner
+   */
+  public boolean canSpawn(int localCap) {
+    if (!spawning) {
+      return true;
+    }
+
+    double x = (spawningChunkX << 4) + 8.0D;
+    double z = (spawningChunkZ << 4) + 8.0D;
+    double radius = IETConfig.LOCAL_CAPS_RADIUS.get();
+    double radiusSqr = radius * radius;
+    boolean nearPlayer = false;
+    for (int i = 0; i < this.counts.length; i++) {
+      double dx = this.playerX[i] - x;
+      double dz = this.playerZ[i] - z;
+      if (dx * dx + dz * dz <= radiusSqr) {
+        if (this.counts[i] < localCap) {
+          return true;
+        }
+        nearPlayer = true;
+      }
+    }
+    // Chunks away from every player are left to the global cap
+    return !nearPlayer;
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.util;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ReferenceSet;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityClassification;
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.MobEntity;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.entity.EntityLeaveWorldEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.registries.ForgeRegistries;
+
+/**
+ * Mob counts per {@link EntityClassification} of a world, kept up to date as
+ * entities join and leave it instead of being recounted every tick. Entities
+ * are counted like the spawner counts them, except for entities whose chunk
+ * isn't accessible. The spawner skips those but this counter counts them, so
+ * its counts can be higher than the spawner's, never lower. Entities can
+ * become persistent without joining or leaving, so the counts are redone every
+ * {@link IETConfig#COUNTER_RESYNC_INTERVAL_TICKS} ticks.
+ * <p>
+ * The spawner still needs the entities of types with a spawn cost in some
+ * biome to compute the mob density, those are kept in
+ * {@link #getChargedEntities}. Registered as a class, its handlers are static.
+ * Must only be used on the server thread.
+ */
+public final class MobCategoryCounter {
+  private static final EntityClassification[] CLASSIFICATIONS = EntityClassification.values();
+  private static final Map<ServerWorld, MobCategoryCounter> COUNTERS = new HashMap<>();
+
+  private final ReferenceSet<EntityType<?>> chargedTypes;
+  private final ReferenceSet<Entity> counted = new ReferenceOpenHashSet<>();
+  private final ReferenceSet<Entity> charged = new ReferenceOpenHashSet<>();
+  private final int[] counts = new int[CLASSIFICATIONS.length];
+  private long lastResync;
+
+  private MobCategoryCounter(ServerWorld world) {
+    this.chargedTypes = getChargedTypes(world);
+    this.resync(world);
+  }
+
+  /**
+   * Returns the world's counter, counting its entities if there's none yet.
+   */
+  public static MobCategoryCounter get(ServerWorld world) {
+    return COUNTERS.computeIfAbsent(world, MobCategoryCounter::new);
+  }
+
+  /**
+   * Counts the world's entities again if the counts are old.
+   */
+  public void update(ServerWorld world) {
+    if (world.getGameTime() - this.lastResync >= IETConfig.COUNTER_RESYNC_INTERVAL_TICKS.get()) {
+      this.resync(world);
+    }
+  }
+
+  /**
+   * @return The entities the spawner has to see to compute the mob density
+   */
+  public Iterable<Entity> getChargedEntities() {
+    return this.charged;
+  }
+
+  /**
+   * Replaces the spawner's counts with these.
+   */
+  public void copyTo(Object2IntMap<EntityClassification> counts) {
+    counts.clear();
+    for (EntityClassification classification : CLASSIFICATIONS) {
+      if (this.counts[classification.ordinal()] > 0) {
+        counts.put(classification, this.counts[classification.ordinal()]);
+      }
+    }
+  }
+
+  /**
+   * Compares these counts with a full recount by the spawner, and counts the
+   * world's entities again if any is lower. Higher counts are expected, they
+   * include the entities in chunks that aren't accessible.
+   */
+  public void verify(ServerWorld world, Object2IntMap<EntityClassification> counts) {
+    for (EntityClassification classification : CLASSIFICATIONS) {
+      if (this.counts[classification.ordinal()] < counts.getInt(classification)) {
+        LOGGER.warn("Mob counts in {} are lower than the spawner's, counted {} but the spawner counted {}", world.dimension().location(), Arrays.toString(this.counts), counts);
+        this.resync(world);
+        return;
+      }
+    }
+  }
+
+  private void resync(ServerWorld world) {
+    this.lastResync = world.getGameTime();
+    this.counted.clear();
+    this.charged.clear();
+    Arrays.fill(this.counts, 0);
+    for (Entity entity : world.getAllEntities()) {
+      this.add(entity);
+    }
+  }
+
+  private void add(Entity entity) {
+    if (this.chargedTypes.contains(entity.getType())) {
+      this.charged.add(entity);
+    }
+
+    // Same entities as WorldEntitySpawner#createState
+    if (entity instanceof MobEntity && (((MobEntity) entity).isPersistenceRequired() || ((MobEntity) entity).requiresCustomPersistence())) {
+      return;
+    }
+    EntityClassification classification = entity.getClassification(true);
+    if (classification != EntityClassification.MISC && this.counted.add(entity)) {
+      this.counts[classification.ordinal()]++;
+    }
+  }
+
+  private void remove(Entity entity) {
+    this.charged.remove(entity);
+    this.uncount(entity);
+  }
+
+  private void uncount(Entity entity) {
+    if (this.counted.remove(entity)) {
+      this.counts[entity.getClassification(true).ordinal()]--;
+    }
+  }
+
+  /**
+   * Uncounts a mob that was made persistent.
+   */
+  public static void onPersistenceRequired(MobEntity entity) {
+    if (entity.level instanceof ServerWorld) {
+      MobCategoryCounter counter = COUNTERS.get(entity.level);
+      if (counter != null) {
+        counter.uncount(entity);
+      }
+    }
+  }
+
+  @SubscribeEvent(priority = EventPriority.LOWEST)
+  public static void onEntityJoin(EntityJoinWorldEvent event) {
+    MobCategoryCounter counter = COUNTERS.get(event.getWorld());
+    if (counter != null) {
+      counter.add(event.getEntity());
+    }
+  }
+
+  @SubscribeEvent
+  public static void onEntityLeave(EntityLeaveWorldEvent event) {
+    MobCategoryCounter counter = COUNTERS.get(event.getWorld());
+    if (counter != null) {
+      counter.remove(event.getEntity());
+    }
+  }
+
+  @SubscribeEvent
+  public static void onWorldUnload(WorldEvent.Unload event) {
+    COUNTERS.remove(event.getWorld());
+  }
+
+  private static ReferenceSet<EntityType<?>> getChargedTypes(ServerWorld world) {
+    ReferenceSet<EntityType<?>> types = new ReferenceOpenHashSet<>();
+    for (Biome biome : world.registryAccess().registryOrThrow(Registry.BIOME_REGISTRY)) {
+      for (EntityType<?> type : ForgeRegistries.ENTITIES) {
+        if (biome.getMobSettings().getMobSpawnCost(type) != null) {
+          types.add(type);
+        }
+      }
+    }
+    return types;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.server.ServerWorld;
+
+/**
+ * Reads the blocks of a rectangular area from {@link ChunkSnapshot}s, without
+ * going through the world or allocating a {@link net.minecraft.util.math.BlockPos}
+ * per block. Blocks are only told apart by whether they're air, solid or
+ * neither, and sections that only hold one of those are reported as uniform so
+ * they can be handled in one step.
+ */
+public final class SectionBlockReader implements BlockAccess {
+  public static final byte AIR = 0;
+  public static final byte SOLID = 1;
+  public static final byte OTHER = 2;
+
+  private final int minChunkX;
+  private final int minChunkZ;
+  private final int chunksX;
+  private final ChunkSnapshot[] chunks;
+
+  /**
+   * Loads and snapshots every chunk overlapping the given block area, reusing
+   * snapshots from the world's {@link ChunkSnapshotCache}. Must be called on
+   * the server thread.
+   */
+  public SectionBlockReader(ServerWorld world, int minX, int minZ, int maxX, int maxZ) {
+    this.minChunkX = minX >> 4;
+    this.minChunkZ = minZ >> 4;
+    this.chunksX = (maxX >> 4) - this.minChunkX + 1;
+    int chunksZ = (maxZ >> 4) - this.minChunkZ + 1;
+
+    ChunkSnapshotCache cache = ChunkSnapshotCache.get(world);
+    this.chunks = new ChunkSnapshot[this.chunksX * chunksZ];
+    for (int z = 0; z < chunksZ; z++) {
+      for (int x = 0; x < this.chunksX; x++) {
+        this.chunks[x + z * this.chunksX] = cache.getOrTake(world, this.minChunkX + x, this.minChunkZ + z);
+      }
+    }
+  }
+
+  /**
+   * Reads the given block area from snapshots taken beforehand, keyed by
+   * {@link ChunkPos#toLong}. Can be called from any thread.
+   * @throws IllegalArgumentException If a chunk overlapping the area is missing
+   */
+  public SectionBlockReader(Long2ObjectMap<ChunkSnapshot> snapshots, int minX, int minZ, int maxX, int maxZ) {
+    this.minChunkX = minX >> 4;
+    this.minChunkZ = minZ >> 4;
+    this.chunksX = (maxX >> 4) - this.minChunkX + 1;
+    int chunksZ = (maxZ >> 4) - this.minChunkZ + 1;
+
+    this.chunks = new ChunkSnapshot[this.chunksX * chunksZ];
+    for (int z = 0; z < chunksZ; z++) {
+      for (int x = 0; x < this.chunksX; x++) {
+        ChunkSnapshot snapshot = snapshots.get(ChunkPos.asLong(this.minChunkX + x, this.minChunkZ + z));
+        if (snapshot == null) {
+          throw new IllegalArgumentException("Missing snapshot of chunk " + new ChunkPos(this.minChunkX + x, this.minChunkZ + z));
+        }
+        this.chunks[x + z * this.chunksX] = snapshot;
+      }
+    }
+  }
+
+  @Override
+  public int getHeight(int x, int z) {
+    return this.getChunk(x, z).getHeight(x & 15, z & 15);
+  }
+
+  @Override
+  public byte getBlockKind(int x, int y, int z) {
+    if (y < 0 || y >= 256) {
+      // Same as the world, which treats blocks outside the build height as air
+      return AIR;
+    }
+    return this.getChunk(x, z).getBlockKind(x & 15, y, z & 15);
+  }
+
+  @Override
+  public int getSectionKind(int x, int y, int z) {
+    if (y < 0 || y >= 256) {
+      return AIR;
+    }
+    return this.getChunk(x, z).getSectionKind(y);
+  }
+
+  private ChunkSnapshot getChunk(int x, int z) {
+    return this.chunks[((x >> 4) - this.minChunkX) + ((z >> 4) - this.minChunkZ) * this.chunksX];
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+
+import java.util.Locale;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.MathHelper;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
+
+/**
+ * Scales the monster cap multiplier with the server's tick time. Every
+ * {@link IETConfig#GOVERNOR_INTERVAL_TICKS} ticks the average MSPT over the
+ * last 100 ticks is compared against the configured thresholds: above the high
+ * one the multiplier steps down towards the minimum, below the low one it
+ * steps back up towards the maximum, and in between it's left alone so it
+ * doesn't flip back and forth. Registered as a class, its handlers are static.
+ */
+public final class SpawnCapGovernor {
+  private SpawnCapGovernor() {} // Uninstantiable
+
+  private static double multiplier = Double.NaN;
+  private static double lastMspt;
+  private static int ticks;
+
+  /**
+   * @return The highest monster cap multiplier allowed right now, or
+   *         {@link Double#POSITIVE_INFINITY} if the governor is disabled
+   */
+  public static double getMultiplier() {
+    if (!IETConfig.GOVERNOR_ENABLED.get() || Double.isNaN(multiplier)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return multiplier;
+  }
+
+  /**
+   * @return The average MSPT the multiplier was last updated with
+   */
+  public static double getLastMspt() {
+    return lastMspt;
+  }
+
+  @SubscribeEvent
+  public static void onServerTick(TickEvent.ServerTickEvent event) {
+    if (event.phase != TickEvent.Phase.END || !IETConfig.GOVERNOR_ENABLED.get() || ++ticks < IETConfig.GOVERNOR_INTERVAL_TICKS.get()) {
+      return;
+    }
+    ticks = 0;
+
+    MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+    if (server == null) {
+      return;
+    }
+
+    long total = 0L;
+    for (long tickTime : server.tickTimes) {
+      total += tickTime;
+    }
+    lastMspt = total / (double) server.tickTimes.length / 1_000_000.0D;
+
+    double min = IETConfig.GOVERNOR_MIN_MULTIPLIER.get();
+    double max = Math.max(min, IETConfig.GOVERNOR_MAX_MULTIPLIER.get());
+    double previous = Double.isNaN(multiplier) ? max : multiplier;
+    double next = previous;
+    if (lastMspt > IETConfig.GOVERNOR_HIGH_MSPT.get()) {
+      next = previous - IETConfig.GOVERNOR_STEP.get();
+    } else if (lastMspt < IETConfig.GOVERNOR_LOW_MSPT.get()) {
+      next = previous + IETConfig.GOVERNOR_STEP.get();
+    }
+    next = MathHelper.clamp(next, min, max);
+
+    if (next != multiplier) {
+      LOGGER.info("Monster cap multiplier changed to {} at {} MSPT", String.format(Locale.ROOT, "%.2f", next), String.format(Locale.ROOT, "%.1f", lastMspt));
+    }
+    multiplier = next;
+  }
+
+  /**
+   * Forgets the last server's multiplier, so the next world opened on an
+   * integrated server starts unthrottled.
+   */
+  @SubscribeEvent
+  public static void onServerStopped(FMLServerStoppedEvent event) {
+    multiplier = Double.NaN;
+    lastMspt = 0.0D;
+    ticks = 0;
+  }
+}
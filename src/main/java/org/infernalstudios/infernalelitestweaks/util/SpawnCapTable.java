@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import static org.infernalstudios.infernalelitestweaks.InfernalElitesTweaks.LOGGER;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.infernalstudios.infernalelitestweaks.IETConfig;
+
+import net.minecraft.entity.EntityClassification;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.World;
+
+/**
+ * Spawn cap multipliers per dimension and {@link EntityClassification}, parsed
+ * from {@link IETConfig#SPAWN_CAP_MULTIPLIERS}. The table is parsed again
+ * whenever the config changes.
+ */
+public final class SpawnCapTable {
+  private SpawnCapTable() {} // Uninstantiable
+
+  private static final EntityClassification[] CLASSIFICATIONS = EntityClassification.values();
+
+  @Nullable
+  private static List<? extends String> parsedEntries;
+  private static Map<ResourceLocation, double[]> multipliers = new HashMap<>();
+
+  /**
+   * @return The multiplier for each classification by ordinal, NaN where the
+   *         vanilla cap applies, or null if none of them are changed in this
+   *         dimension
+   */
+  @Nullable
+  public static double[] getMultipliers(RegistryKey<World> dimension) {
+    List<? extends String> entries = IETConfig.SPAWN_CAP_MULTIPLIERS.get();
+    if (entries != parsedEntries) {
+      multipliers = parse(entries);
+      parsedEntries = entries;
+    }
+    return multipliers.get(dimension.location());
+  }
+
+  /**
+   * Same as the cap in {@link net.minecraft.world.spawner.WorldEntitySpawner.EntityDensityManager#canSpawnForCategory},
+   * with the given multiplier.
+   */
+  public static int getCap(EntityClassification classification, int spawnableChunkCount, double multiplier, int magicNumber) {
+    return (int) (classification.getMaxInstancesPerChunk() * (spawnableChunkCount * multiplier) / magicNumber);
+  }
+
+  private static Map<ResourceLocation, double[]> parse(List<? extends String> entries) {
+    Map<ResourceLocation, double[]> parsed = new HashMap<>();
+    for (String entry : entries) {
+      String[] parts = entry.split(";");
+      if (parts.length != 3) {
+        LOGGER.warn("Ignoring spawn cap multiplier \"{}\", it should look like \"<dimension>;<category>;<multiplier>\"", entry);
+        continue;
+      }
+
+      ResourceLocation dimension = ResourceLocation.tryParse(parts[0].trim());
+      EntityClassification classification = EntityClassification.byName(parts[1].trim().toLowerCase(Locale.ROOT));
+      double multiplier;
+      try {
+        multiplier = Double.parseDouble(parts[2].trim());
+      } catch (NumberFormatException e) {
+        multiplier = Double.NaN;
+      }
+
+      if (dimension == null || classification == null || !(multiplier >= 0.0D)) {
+        LOGGER.warn("Ignoring spawn cap multiplier \"{}\", it has an invalid dimension, category or multiplier", entry);
+        continue;
+      }
+
+      double[] dimensionMultipliers = parsed.get(dimension);
+      if (dimensionMultipliers == null) {
+        dimensionMultipliers = new double[CLASSIFICATIONS.length];
+        Arrays.fill(dimensionMultipliers, Double.NaN);
+        parsed.put(dimension, dimensionMultipliers);
+      }
+      dimensionMultipliers[classification.ordinal()] = multiplier;
+    }
+    return parsed;
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.infernalstudios.infernalelitestweaks.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.Nullable;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.BlockPos.Mutable;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.border.WorldBorder;
+
+/**
+ * Compares the ring search and its banded parallel variant against the
+ * original search over made up terrain.
+ */
+public class SafePositionSearchTest {
+  private static final int RADIUS = 48;
+  private static final long[] SEEDS = { 0L, 1L, 42L, 1337L, 20211022L };
+  private static final int ORIGINS_PER_SEED = 16;
+  private static final int[] BANDS = { 1, 2, 4, 7 };
+
+  private static ForkJoinPool pool;
+
+  @BeforeAll
+  public static void createPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterAll
+  public static void shutdownPool() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void getSafePositionMatchesReference() {
+    WorldBorder worldborder = new WorldBorder();
+    for (SyntheticNether.Terrain terrain : SyntheticNether.Terrain.values()) {
+      for (long seed : SEEDS) {
+        SyntheticNether nether = new SyntheticNether(terrain, RADIUS, seed);
+        Random random = new Random(seed);
+        for (int i = 0; i < ORIGINS_PER_SEED; i++) {
+          BlockPos pos = randomOrigin(random);
+          assertEquals(
+            getSafePositionReference(nether, worldborder, SyntheticNether.HEIGHT, pos),
+            IETUtil.getSafePosition(nether, worldborder, SyntheticNether.HEIGHT, pos),
+            terrain + " seed " + seed + " at " + pos
+          );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void getNearestSafePositionMatchesReference() {
+    WorldBorder worldborder = new WorldBorder();
+    for (SyntheticNether.Terrain terrain : SyntheticNether.Terrain.values()) {
+      for (long seed : SEEDS) {
+        SyntheticNether nether = new SyntheticNether(terrain, RADIUS, seed);
+        Random random = new Random(seed);
+        BlockPos nearpos = randomOrigin(random);
+        List<BlockPos> candidates = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+          candidates.add(randomOrigin(random));
+        }
+
+        BlockPos expected = getNearestSafePositionReference(nether, worldborder, candidates, nearpos);
+        for (int bands : BANDS) {
+          assertEquals(
+            expected,
+            IETUtil.getNearestSafePosition(pool, bands, nether, worldborder, SyntheticNether.HEIGHT, candidates, nearpos),
+            terrain + " seed " + seed + " in " + bands + " bands"
+          );
+        }
+      }
+    }
+  }
+
+  private static BlockPos randomOrigin(Random random) {
+    return new BlockPos(
+      random.nextInt(RADIUS) - RADIUS / 2,
+      1 + random.nextInt(SyntheticNether.HEIGHT - 2),
+      random.nextInt(RADIUS) - RADIUS / 2
+    );
+  }
+
+  private static BlockPos getNearestSafePositionReference(BlockAccess blocks, WorldBorder worldborder, List<BlockPos> candidates, BlockPos nearpos) {
+    BlockPos nearestBlockPos = null;
+    for (BlockPos candidate : candidates) {
+      BlockPos pos = getSafePositionReference(blocks, worldborder, SyntheticNether.HEIGHT, candidate);
+      if (pos != null && (nearestBlockPos == null || nearestBlockPos.distSqr(nearpos) > pos.distSqr(nearpos))) {
+        nearestBlockPos = pos;
+      }
+    }
+
+    return nearestBlockPos;
+  }
+
+  /**
+   * The unoptimized search {@link IETUtil#getSafePosition} must agree with,
+   * reading every block on its own.
+   */
+  @Nullable
+  private static BlockPos getSafePositionReference(BlockAccess blocks, WorldBorder worldborder, int dimHeight, BlockPos pos) {
+    Direction direction = Direction.get(Direction.AxisDirection.POSITIVE, Direction.Axis.X);
+    double shortestDistToOpen = -1.0D; // The shortest distance^2 found to an "open" area where a portal will fit
+    double shortestDistToFit = -1.0D; // The shortest distance^2 found to ANY area where a portal will fit
+    BlockPos safePos = null;
+    BlockPos tempPos = null;
+    Mutable mutablePos = pos.mutable();
+
+    // For each BlockPos in a 16x16 area to the Southeast?
+    for (Mutable currentPos : BlockPos.spiralAround(pos, IETUtil.SAFE_POSITION_RADIUS, Direction.EAST, Direction.SOUTH)) {
+
+      int minDimHeight = Math.min(dimHeight - 1, blocks.getHeight(currentPos.getX(), currentPos.getZ()));
+
+      if (worldborder.isWithinBounds(currentPos) && worldborder.isWithinBounds(currentPos.move(direction, 1))) {
+        currentPos.move(direction.getOpposite(), 1);
+
+        for (int height = minDimHeight; height >= 0; height--) {
+
+          currentPos.setY(height);
+          if (isAir(blocks, currentPos)) {
+
+            int currentHeight = height;
+
+            // Find the height where there isn't air
+            while (height > 0 && isAir(blocks, currentPos.move(Direction.DOWN))) {
+              height--;
+            }
+
+            // If height is low-enough from dimension height to place a portal
+            if (height + 4 <= dimHeight - 1) {
+
+              int deltaHeight = currentHeight - height;
+
+              if (deltaHeight <= 0 || deltaHeight >= 3) {
+                currentPos.setY(height);
+
+                // If currentPos is valid for placement
+                if (checkRegionForPlacementReference(blocks, currentPos, mutablePos, direction, 0)) {
+
+                  // Calculate distance^2 to current position
+                  double currentDist = pos.distSqr(currentPos);
+
+                  // If positions next to current position are valid for placement and currentPos
+                  // is closer than the next-closest open position, then...
+                  // this area is likely an "open" area and now the closest to the original
+                  // position we were looking at
+                  if (checkRegionForPlacementReference(blocks, currentPos, mutablePos, direction, -1) &&
+                      checkRegionForPlacementReference(blocks, currentPos, mutablePos, direction, 1) &&
+                      (shortestDistToOpen == -1.0D || shortestDistToOpen > currentDist)) {
+                    shortestDistToOpen = currentDist;
+                    safePos = currentPos.immutable();
+                  }
+
+                  // If no "open" area has been found, then...
+                  // this is the closest place to the original position where it can fit
+                  if (shortestDistToOpen == -1.0D && (shortestDistToFit == -1.0D || shortestDistToFit > currentDist)) {
+                    shortestDistToFit = currentDist;
+                    tempPos = currentPos.immutable();
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    // If no "open" area was found, use the closest area where a portal will fit
+    if (shortestDistToOpen == -1.0D && shortestDistToFit != -1.0D) {
+      safePos = tempPos;
+      shortestDistToOpen = shortestDistToFit;
+    }
+
+    // If the portal will fit nowhere, return the original position (clamped to
+    // between y 70 and dimension height - 10) as the best candidate, unless it's
+    // not in the world border
+    if (shortestDistToOpen == -1.0D) {
+      safePos = (new BlockPos(pos.getX(), MathHelper.clamp(pos.getY(), 70, dimHeight - 10), pos.getZ())).immutable();
+      // If the original position is not in the world border, return that there is NO
+      // safe position for a portal
+      if (!worldborder.isWithinBounds(safePos)) {
+        return null;
+      }
+    }
+
+    return safePos;
+  }
+
+  private static boolean checkRegionForPlacementReference(BlockAccess blocks, BlockPos originalPos, Mutable offsetPos, Direction directionIn, int offsetScale) {
+    Direction direction = directionIn.getClockWise();
+
+    for (int x = -1; x < 1; ++x) {
+      for (int y = -1; y < 2; ++y) {
+        offsetPos.setWithOffset(
+          originalPos,
+          directionIn.getStepX() * x + direction.getStepX() * offsetScale,
+          y,
+          directionIn.getStepZ() * x + direction.getStepZ() * offsetScale
+        );
+
+        // If no solid ground beneath offsetPos, return false
+        if (y < 0 && blocks.getBlockKind(offsetPos.getX(), offsetPos.getY(), offsetPos.getZ()) != SectionBlockReader.SOLID) {
+          return false;
+        }
+
+        // If no air within region, return false
+        if (y >= 0 && !isAir(blocks, offsetPos)) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isAir(BlockAccess blocks, BlockPos pos) {
+    return blocks.getBlockKind(pos.getX(), pos.getY(), pos.getZ()) == SectionBlockReader.AIR;
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2021 Infernal Studios
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.infernalstudios.infernalelitestweaks.util;
+
+import static org.infernalstudios.infernalelitestweaks.util.SectionBlockReader.AIR;
+import static org.infernalstudios.infernalelitestweaks.util.SectionBlockReader.OTHER;
+import static org.infernalstudios.infernalelitestweaks.util.SectionBlockReader.SOLID;
+
+import java.util.Random;
+
+/**
+ * Made up nether terrain around the origin, with a solid floor at y 0 and a
+ * solid ceiling at y 127 like the real one. Lava is
+ * {@link SectionBlockReader#OTHER}. Blocks outside of the area are solid.
+ * Shared by the tests and the benchmarks.
+ */
+public final class SyntheticNether implements BlockAccess {
+  /**
+   * Logical height of the nether.
+   */
+  public static final int HEIGHT = 128;
+  private static final int LAVA_LEVEL = 31;
+
+  public enum Terrain {
+    /**
+     * A lava sea from wall to wall with a few small netherrack islands.
+     */
+    LAVA_SEA,
+    /**
+     * Netherrack with winding caverns, the closest to a real nether.
+     */
+    NETHERRACK_CAVERNS,
+    /**
+     * One big cavern over a lava sea, with thin ledges that are mostly too
+     * narrow to stand on.
+     */
+    THIN_LEDGES,
+    /**
+     * Netherrack everywhere, nothing ever fits.
+     */
+    SOLID
+  }
+
+  private final int radius;
+  private final int size;
+  private final byte[] blocks;
+  private final short[] heights;
+  private final byte[] sectionKinds;
+
+  /**
+   * @param radius The area goes from -radius to radius - 1 on both axes
+   */
+  public SyntheticNether(Terrain terrain, int radius, long seed) {
+    this.radius = radius;
+    this.size = radius * 2;
+    this.blocks = new byte[this.size * this.size * HEIGHT];
+    Random random = new Random(seed);
+
+    switch (terrain) {
+      case LAVA_SEA:
+        this.fill(0, LAVA_LEVEL - 4, SOLID);
+        this.fill(LAVA_LEVEL - 3, LAVA_LEVEL, OTHER);
+        for (int i = 0; i < 6; i++) {
+          this.addIsland(random.nextInt(this.size), random.nextInt(this.size), 2 + random.nextInt(3));
+        }
+        break;
+      case NETHERRACK_CAVERNS:
+        this.addCaverns(random);
+        break;
+      case THIN_LEDGES:
+        this.fill(0, LAVA_LEVEL - 4, SOLID);
+        this.fill(LAVA_LEVEL - 3, LAVA_LEVEL, OTHER);
+        for (int i = 0; i < this.size * 2; i++) {
+          this.addLedge(random);
+        }
+        break;
+      case SOLID:
+        this.fill(0, HEIGHT - 1, SOLID);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown terrain " + terrain);
+    }
+    this.fill(0, 0, SOLID);
+    this.fill(HEIGHT - 1, HEIGHT - 1, SOLID);
+
+    this.heights = new short[this.size * this.size];
+    this.sectionKinds = new byte[this.size * this.size * (HEIGHT >> 4)];
+    for (int z = 0; z < this.size; z++) {
+      for (int x = 0; x < this.size; x++) {
+        int column = x + z * this.size;
+        int y = HEIGHT - 1;
+        while (y > 0 && this.blocks[this.index(x, y, z)] == AIR) {
+          y--;
+        }
+        // Blocks above the logical height are air, so the height is one above the ceiling
+        this.heights[column] = (short) (y + 1);
+
+        for (int section = 0; section < HEIGHT >> 4; section++) {
+          byte kind = this.blocks[this.index(x, section << 4, z)];
+          for (int dy = 1; dy < 16 && kind >= 0; dy++) {
+            if (this.blocks[this.index(x, (section << 4) + dy, z)] != kind) {
+              kind = -1;
+            }
+          }
+          this.sectionKinds[column * (HEIGHT >> 4) + section] = kind;
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getHeight(int x, int z) {
+    if (!this.contains(x, z)) {
+      return HEIGHT;
+    }
+    return this.heights[(x + this.radius) + (z + this.radius) * this.size];
+  }
+
+  @Override
+  public byte getBlockKind(int x, int y, int z) {
+    if (y < 0 || y >= HEIGHT) {
+      return AIR;
+    }
+    if (!this.contains(x, z)) {
+      return SOLID;
+    }
+    return this.blocks[this.index(x + this.radius, y, z + this.radius)];
+  }
+
+  @Override
+  public int getSectionKind(int x, int y, int z) {
+    if (y < 0 || y >= HEIGHT) {
+      return AIR;
+    }
+    if (!this.contains(x, z)) {
+      return SOLID;
+    }
+    int column = (x + this.radius) + (z + this.radius) * this.size;
+    return this.sectionKinds[column * (HEIGHT >> 4) + (y >> 4)];
+  }
+
+  private boolean contains(int x, int z) {
+    return x >= -this.radius && x < this.radius && z >= -this.radius && z < this.radius;
+  }
+
+  private int index(int x, int y, int z) {
+    return x + z * this.size + y * this.size * this.size;
+  }
+
+  private void fill(int minY, int maxY, byte kind) {
+    for (int y = minY; y <= maxY; y++) {
+      for (int z = 0; z < this.size; z++) {
+        for (int x = 0; x < this.size; x++) {
+          this.blocks[this.index(x, y, z)] = kind;
+        }
+      }
+    }
+  }
+
+  private void addIsland(int centerX, int centerZ, int islandRadius) {
+    for (int z = Math.max(0, centerZ - islandRadius); z <= Math.min(this.size - 1, centerZ + islandRadius); z++) {
+      for (int x = Math.max(0, centerX - islandRadius); x <= Math.min(this.size - 1, centerX + islandRadius); x++) {
+        int dx = x - centerX;
+        int dz = z - centerZ;
+        if (dx * dx + dz * dz <= islandRadius * islandRadius) {
+          for (int y = 1; y <= LAVA_LEVEL + 2; y++) {
+            this.blocks[this.index(x, y, z)] = SOLID;
+          }
+        }
+      }
+    }
+  }
+
+  private void addCaverns(Random random) {
+    // Sum of a few waves with random directions and phases, cheap and smooth enough to look like caves
+    double[][] waves = new double[6][5];
+    for (double[] wave : waves) {
+      wave[0] = random.nextGaussian() * 0.15D;
+      wave[1] = random.nextGaussian() * 0.1D;
+      wave[2] = random.nextGaussian() * 0.15D;
+      wave[3] = random.nextDouble() * Math.PI * 2.0D;
+      wave[4] = 0.5D + random.nextDouble();
+    }
+
+    for (int y = 1; y < HEIGHT - 1; y++) {
+      for (int z = 0; z < this.size; z++) {
+        for (int x = 0; x < this.size; x++) {
+          double value = 0.0D;
+          for (double[] wave : waves) {
+            value += Math.sin(x * wave[0] + y * wave[1] + z * wave[2] + wave[3]) * wave[4];
+          }
+          byte kind;
+          if (value > 0.8D) {
+            kind = y <= LAVA_LEVEL ? OTHER : AIR;
+          } else {
+            kind = SOLID;
+          }
+          this.blocks[this.index(x, y, z)] = kind;
+        }
+      }
+    }
+  }
+
+  private void addLedge(Random random) {
+    int y = LAVA_LEVEL + 4 + random.nextInt(HEIGHT - LAVA_LEVEL - 12);
+    int x = random.nextInt(this.size);
+    int z = random.nextInt(this.size);
+    int length = 2 + random.nextInt(8);
+    // Mostly a single block wide, which is too narrow for a player to fit
+    int width = random.nextInt(4) == 0 ? 2 : 1;
+    boolean alongX = random.nextBoolean();
+    for (int i = 0; i < length; i++) {
+      for (int j = 0; j < width; j++) {
+        int blockX = alongX ? x + i : x + j;
+        int blockZ = alongX ? z + j : z + i;
+        if (blockX < this.size && blockZ < this.size) {
+          this.blocks[this.index(blockX, y, blockZ)] = SOLID;
+        }
+      }
+    }
+  }
+}